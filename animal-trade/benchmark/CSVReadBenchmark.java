@@ -0,0 +1,124 @@
+package grakn.examples.animaltrade;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Time to read a whole synthetic CITES file, touching the columns a fact insert needs
+ * 10M rows is roughly 1GB; the file is generated into java.io.tmpdir on first use and kept for later runs,
+ * as is its preprocessed table for `tradeTable`
+ *
+ * bazel run //:trade-migration-benchmark -- CSVReadBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class CSVReadBenchmark {
+
+    @Param({"10000", "1000000", "10000000"})
+    public long rows;
+
+    private Path file;
+    private Path table;
+
+    @Setup
+    public void setup() throws IOException {
+        file = SyntheticTradeData.file(rows);
+        table = file.resolveSibling(file.getFileName() + ".table");
+        if (!Files.exists(table)) {
+            TradeTable.write(file, table, Collections.emptyMap());
+        }
+    }
+
+    @Benchmark
+    public long csvIterator() throws IOException {
+        long total = 0;
+        CSVIterator csv = new CSVIterator(file.toFile(), ',');
+        while (csv.hasNext()) {
+            Map<String, String> line = csv.next();
+            total += Integer.parseInt(line.get("Year")) + line.get("Taxon").length() + line.get("Importer").length();
+            if (!line.get("Importer reported quantity").isEmpty()) {
+                total += (long) Double.parseDouble(line.get("Importer reported quantity"));
+            }
+        }
+        csv.close();
+        return total;
+    }
+
+    @Benchmark
+    public long csvRowReader() throws IOException {
+        long total = 0;
+        try (CSVRowReader csv = CSVRowReader.open(file, ',', StandardCharsets.UTF_8)) {
+            int year = csv.column("Year");
+            int taxon = csv.column("Taxon");
+            int importer = csv.column("Importer");
+            int imported = csv.column("Importer reported quantity");
+            while (csv.next()) {
+                CSVRow row = csv.row();
+                total += row.getInt(year) + row.get(taxon).length() + row.get(importer).length();
+                if (!row.isEmpty(imported)) {
+                    total += (long) row.getDouble(imported);
+                }
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long parallelCSVReader() throws IOException, InterruptedException {
+        AtomicLong total = new AtomicLong();
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        new ParallelCSVReader(file, ',', StandardCharsets.UTF_8, threads, CSVChunkSplitter.DEFAULT_CHUNK_SIZE).read(row -> {
+            int year = row.column("Year");
+            int imported = row.column("Importer reported quantity");
+            long sum = row.getInt(year) + row.get(row.column("Taxon")).length() + row.get(row.column("Importer")).length();
+            if (!row.isEmpty(imported)) {
+                sum += (long) row.getDouble(imported);
+            }
+            total.addAndGet(sum);
+        });
+        return total.get();
+    }
+
+    @Benchmark
+    public long tradeTable() throws IOException, InterruptedException {
+        AtomicLong total = new AtomicLong();
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        try (TradeTable trade = TradeTable.open(table)) {
+            int year = trade.column("Year");
+            int taxon = trade.column("Taxon");
+            int importer = trade.column("Importer");
+            int imported = trade.column("Importer reported quantity");
+            trade.read(row -> {
+                long sum = row.getInt(year) + row.get(taxon).length() + row.get(importer).length();
+                if (!row.isEmpty(imported)) {
+                    sum += (long) row.getDouble(imported);
+                }
+                total.addAndGet(sum);
+            }, Collections::singletonList, threads, nanos -> {
+            });
+        }
+        return total.get();
+    }
+}
@@ -0,0 +1,103 @@
+package grakn.examples.animaltrade;
+
+import graql.lang.Graql;
+import graql.lang.query.GraqlGet;
+import graql.lang.query.GraqlInsert;
+import graql.lang.query.GraqlQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Every query in DataMigrationQueries: building the insert, building the existence check for the singletons,
+ * and parsing the generated insert back, which is what the server does with it
+ *
+ * bazel run //:trade-migration-benchmark -- MigrationQueryBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MigrationQueryBenchmark {
+
+    @Param({"continent", "country", "class", "order", "family", "genus", "species", "exchange"})
+    public String query;
+
+    private MigrationQuery migrationQuery;
+    private Map<String, String> line;
+    private String generated;
+
+    @Setup
+    public void setup() {
+        MigrationQuery[] countryRegion = DataMigrationQueries.getCountryRegionMigrationQueries();
+        MigrationQuery[] taxonomy = DataMigrationQueries.getTaxonomyHierarchyMigrationQueries();
+        switch (query) {
+            case "continent":
+                migrationQuery = countryRegion[0];
+                break;
+            case "country":
+                migrationQuery = countryRegion[1];
+                break;
+            case "class":
+                migrationQuery = taxonomy[0];
+                break;
+            case "order":
+                migrationQuery = taxonomy[1];
+                break;
+            case "family":
+                migrationQuery = taxonomy[2];
+                break;
+            case "genus":
+                migrationQuery = taxonomy[3];
+                break;
+            case "species":
+                migrationQuery = taxonomy[4];
+                break;
+            case "exchange":
+                migrationQuery = DataMigrationQueries.getExchangeMigrationQuery();
+                break;
+            default:
+                throw new IllegalArgumentException("No query named " + query);
+        }
+        boolean countryRegionQuery = query.equals("continent") || query.equals("country");
+        line = countryRegionQuery ? SampleRows.countryLine() : SampleRows.tradeLine();
+        generated = migrationQuery.getQuery(line).toString();
+    }
+
+    @Benchmark
+    public GraqlInsert build() {
+        return migrationQuery.getQuery(line);
+    }
+
+    // the exchange query has no existence check, so this only measures the lookup for it
+    @Benchmark
+    public GraqlGet buildCheckExists() {
+        if (migrationQuery instanceof SingletonInsertMigrationQuery) {
+            return ((SingletonInsertMigrationQuery) migrationQuery).getCheckExistQuery(line);
+        }
+        return null;
+    }
+
+    @Benchmark
+    public String buildToString() {
+        return migrationQuery.getQuery(line).toString();
+    }
+
+    @Benchmark
+    public GraqlQuery parseGenerated() {
+        return Graql.parse(generated);
+    }
+}
@@ -0,0 +1,105 @@
+package grakn.examples.animaltrade;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * The whole trade data load, from a synthetic CITES file to an in-memory sink: the taxonomy scan and load,
+ * then parallel parsing, splitting, query building and batching of the facts. The sink takes no time, so this is
+ * the most the loader can push through; raise `queryMicros` to see how it copes with a slower server
+ *
+ * bazel run //:trade-migration-benchmark -- PipelineBenchmark -p rows=1000000
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class PipelineBenchmark {
+
+    private static final int READERS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private static final int IN_FLIGHT = 2 * Runtime.getRuntime().availableProcessors();
+    private static final int SESSIONS = 4;
+
+    @Param({"10000", "1000000", "10000000"})
+    public long rows;
+
+    @Param({"0"})
+    public int queryMicros;
+
+    private Path file;
+
+    @Setup
+    public void setup() throws IOException {
+        file = SyntheticTradeData.file(rows);
+    }
+
+    @Benchmark
+    public long taxonomy() throws IOException {
+        RecordingSink sink = new RecordingSink(queryMicros * 1000L, 0, 0, false);
+        String keyspace = KeyspaceSplit.KEYSPACE_PREFIX + "benchmark";
+        LoaderMetrics metrics = new LoaderMetrics();
+        try (SessionPool session = new SessionPool(sink, keyspace, SESSIONS, IN_FLIGHT, metrics);
+             TransactionWindow window = new TransactionWindow(session, IN_FLIGHT)) {
+            TaxonomyLoader taxonomy = TaxonomyLoader.scan(file.toFile());
+            taxonomy.load(session, window, LoaderConfig.DEFAULT_BATCH_SIZE, metrics);
+            return taxonomy.size();
+        }
+    }
+
+    @Benchmark
+    public long facts() throws IOException, InterruptedException {
+        RecordingSink sink = new RecordingSink(queryMicros * 1000L, 0, 0, false);
+        KeyspaceSplit split = KeyspaceSplit.parse(KeyspaceSplit.DEFAULT_SPLIT, 0, null);
+        MigrationQuery exchangeMigration = DataMigrationQueries.getExchangeMigrationQuery();
+        LoaderMetrics metrics = new LoaderMetrics();
+        List<BatchLoader.RowLoader<CSVRow>> rowLoaders = new ArrayList<>();
+        for (int i = 0; i < split.size(); i++) {
+            rowLoaders.add((line, tx) -> App.loadExchange(line, exchangeMigration, ConceptIndex.EMPTY, tx, metrics));
+        }
+
+        AtomicLong loaded = new AtomicLong();
+        KeyspaceSplit.Key key;
+        try (CSVRowReader csv = CSVRowReader.open(file, ',', StandardCharsets.UTF_8)) {
+            key = split.key(csv);
+        }
+        // fixed, so every run measures the same settings
+        int inFlight = Math.max(2, IN_FLIGHT / split.size());
+        LoadController controller = LoadController.fixed(LoaderConfig.DEFAULT_BATCH_SIZE, inFlight);
+        List<SessionPool> sessions = new ArrayList<>();
+        for (String keyspace : split.keyspaces()) {
+            sessions.add(new SessionPool(sink, keyspace, SESSIONS, inFlight, metrics));
+        }
+        try (FactLoader<CSVRow> facts = new FactLoader<>(split.keyspaces(), sessions, controller,
+                LoaderMetrics.queryClass(exchangeMigration), rowLoaders, metrics)) {
+            new ParallelCSVReader(file, ',', StandardCharsets.UTF_8, READERS, CSVChunkSplitter.DEFAULT_CHUNK_SIZE)
+                    .read(line -> {
+                        int keyspace = split.keyspaceOf(line, key);
+                        facts.submit(keyspace, line.snapshot());
+                        loaded.incrementAndGet();
+                    }, Collections::singletonList);
+        } finally {
+            sessions.forEach(SessionPool::close);
+        }
+        return loaded.get();
+    }
+}
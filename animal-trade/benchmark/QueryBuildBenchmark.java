@@ -0,0 +1,75 @@
+package grakn.examples.animaltrade;
+
+import graql.lang.Graql;
+import graql.lang.query.GraqlInsert;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Building the exchange query for a line with the Graql builder, against the old way of concatenating
+ * an import and an export query string and parsing each of them
+ *
+ * bazel run //:trade-migration-benchmark -- QueryBuildBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class QueryBuildBenchmark {
+
+    private Map<String, String> line;
+    private MigrationQuery exchangeQuery;
+
+    @Setup
+    public void setup() {
+        line = SampleRows.tradeLine();
+        exchangeQuery = DataMigrationQueries.getExchangeMigrationQuery();
+    }
+
+    @Benchmark
+    public GraqlInsert builder() {
+        return exchangeQuery.getQuery(line);
+    }
+
+    @Benchmark
+    public void stringAndParse(Blackhole blackhole) {
+        blackhole.consume(Graql.parse(legacyQuery(line, "import", "imported-item", "Importer reported quantity")).asInsert());
+        blackhole.consume(Graql.parse(legacyQuery(line, "export", "exported-item", "Exporter reported quantity")).asInsert());
+    }
+
+    // the import and export queries as they used to be written, for comparison
+    private static String legacyQuery(Map<String, String> line, String exchange, String itemRole, String quantityColumn) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("match $importer isa country, has ISO-id \"").append(line.get("Importer")).append("\"; ");
+        sb.append("$exporter isa country, has ISO-id \"").append(line.get("Exporter")).append("\"; ");
+        sb.append("$s isa taxonomic-species, has name \"").append(line.get("Taxon")).append("\"; ");
+        sb.append("insert ");
+        sb.append("$m isa measurement, has unit-of-measurement \"").append(line.get("Unit")).append("\"");
+        sb.append(", has measured-quantity ").append(String.format("%f", Double.parseDouble(line.get(quantityColumn))));
+        sb.append("; ");
+        sb.append("$item isa traded-item, has item-purpose \"").append(line.get("Purpose")).append("\"");
+        sb.append(", has item-source \"").append(line.get("Source")).append("\"");
+        sb.append(", has item-type \"").append(line.get("Term")).append("\"; ");
+        sb.append("$").append(exchange).append(" (").append(itemRole).append(": $item, receiving-country: $importer, providing-country: $exporter) isa ")
+                .append(exchange).append(", has exchange-date ");
+        sb.append(line.get("Year")).append("-01-01");
+        sb.append(", has appendix 2; ");
+        sb.append("$r (quantified-subject: $item, quantification-measurement: $m) isa quantification; ");
+        sb.append("(member-item: $item, taxonomic-group: $s) isa taxon-membership;");
+        return sb.toString();
+    }
+}
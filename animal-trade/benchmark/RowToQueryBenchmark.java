@@ -0,0 +1,76 @@
+package grakn.examples.animaltrade;
+
+import graql.lang.query.GraqlInsert;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Allocation on the way from a line to its queries. Run with the GC profiler and compare gc.alloc.rate.norm:
+ *
+ * bazel run //:trade-migration-benchmark -- RowToQueryBenchmark -prof gc
+ *
+ * The legacy* benchmarks repeat the per-row formatter and appendix map allocation the queries used to do
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RowToQueryBenchmark {
+
+    private Map<String, String> tradeLine;
+    private Map<String, String> countryLine;
+    private MigrationQuery exchangeQuery;
+    private MigrationQuery countryQuery;
+
+    @Setup
+    public void setup() {
+        tradeLine = SampleRows.tradeLine();
+        countryLine = SampleRows.countryLine();
+        exchangeQuery = DataMigrationQueries.getExchangeMigrationQuery();
+        countryQuery = DataMigrationQueries.getCountryRegionMigrationQueries()[1];
+    }
+
+    @Benchmark
+    public GraqlInsert exchangeQuery() {
+        return exchangeQuery.getQuery(tradeLine);
+    }
+
+    @Benchmark
+    public GraqlInsert countryQuery() {
+        return countryQuery.getQuery(countryLine);
+    }
+
+    @Benchmark
+    public long dateAndAppendix() {
+        LocalDateTime date = MigrationQuery.yearStart(Integer.parseInt(tradeLine.get("Year")));
+        return date.getYear() + MigrationQuery.appendixNumber(tradeLine.get("App."));
+    }
+
+    @Benchmark
+    public long legacyDateAndAppendix() {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+        String date = LocalDate.of(Integer.parseInt(tradeLine.get("Year")), 1, 1).format(formatter);
+        Map<String, String> appendixMapping = new HashMap<>();
+        appendixMapping.put("I", "1");
+        appendixMapping.put("II", "2");
+        appendixMapping.put("III", "3");
+        return date.length() + Long.parseLong(appendixMapping.get(tradeLine.get("App.")));
+    }
+}
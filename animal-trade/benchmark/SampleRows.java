@@ -0,0 +1,41 @@
+package grakn.examples.animaltrade;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Representative lines for the benchmarks, shaped like the CITES trade data and the country-region mapping
+ */
+class SampleRows {
+
+    static Map<String, String> tradeLine() {
+        Map<String, String> line = new HashMap<>();
+        line.put("Year", "2016");
+        line.put("App.", "II");
+        line.put("Taxon", "Python reticulatus");
+        line.put("Class", "Reptilia");
+        line.put("Order", "Serpentes");
+        line.put("Family", "Pythonidae");
+        line.put("Genus", "Python");
+        line.put("Importer", "SG");
+        line.put("Exporter", "ID");
+        line.put("Origin", "");
+        line.put("Importer reported quantity", "120");
+        line.put("Exporter reported quantity", "125.5");
+        line.put("Term", "skins");
+        line.put("Unit", "Number of specimens");
+        line.put("Purpose", "Commercial");
+        line.put("Source", "Wild");
+        return line;
+    }
+
+    static Map<String, String> countryLine() {
+        Map<String, String> line = new HashMap<>();
+        line.put("Official Name", "Republic of Singapore");
+        line.put("ISO", "SG");
+        line.put("Region", "Asia");
+        line.put("Type", "Accession");
+        line.put("Entry into force", "28/02/1987");
+        return line;
+    }
+}
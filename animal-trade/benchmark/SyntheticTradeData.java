@@ -0,0 +1,103 @@
+package grakn.examples.animaltrade;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/*
+ * Writes CSV files shaped like the CITES trade data, for benchmarking without the real (and much smaller) export
+ *
+ * Values are drawn from small vocabularies with a fixed seed, so the same row count always gives the same file
+ * Some taxa are quoted and contain the separator, like the real data
+ */
+class SyntheticTradeData {
+
+    static final String HEADER = "Year,App.,Taxon,Class,Order,Family,Genus,Importer,Exporter,Origin,"
+            + "Importer reported quantity,Exporter reported quantity,Term,Unit,Purpose,Source";
+
+    private static final String[][] TAXA = {
+            // Class, Order, Family, Genus, Taxon
+            {"Reptilia", "Serpentes", "Pythonidae", "Python", "Python reticulatus"},
+            {"Reptilia", "Crocodylia", "Alligatoridae", "Caiman", "Caiman crocodilus fuscus"},
+            {"Aves", "Psittaciformes", "Psittacidae", "Amazona", "Amazona aestiva"},
+            {"Mammalia", "Primates", "Cercopithecidae", "Macaca", "Macaca fascicularis"},
+            {"Anthozoa", "Scleractinia", "Acroporidae", "Acropora", "Acropora spp."},
+            {"Actinopteri", "Acipenseriformes", "Acipenseridae", "Acipenser", "Acipenser gueldenstaedtii, hybrid"},
+    };
+    private static final String[] COUNTRIES = {"SG", "ID", "US", "JP", "DE", "FR", "CN", "BR", "ZA", "AU", "GB", "IT"};
+    private static final String[] APPENDICES = {"I", "II", "III"};
+    private static final String[] TERMS = {"skins", "live", "meat", "leather products (small)", "bodies", "eggs"};
+    private static final String[] UNITS = {"", "kg", "Number of specimens", "m2"};
+    private static final String[] PURPOSES = {"T", "Z", "S", "P", "M"};
+    private static final String[] SOURCES = {"W", "C", "D", "F", "R"};
+
+    static Path file(long rows) throws IOException {
+        Path path = Paths.get(System.getProperty("java.io.tmpdir"), "cites-synthetic-" + rows + ".csv");
+        if (!Files.exists(path)) {
+            Path partial = Paths.get(path + ".partial");
+            write(partial, rows);
+            Files.move(partial, path);
+        }
+        return path;
+    }
+
+    static void write(Path path, long rows) throws IOException {
+        Random random = new Random(42);
+        try (Writer writer = new BufferedWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8), 1 << 20)) {
+            writer.write(HEADER);
+            writer.write('\n');
+            StringBuilder line = new StringBuilder(256);
+            for (long i = 0; i < rows; i++) {
+                line.setLength(0);
+                appendRow(line, random);
+                writer.append(line).append('\n');
+            }
+        }
+    }
+
+    static void appendRow(StringBuilder line, Random random) {
+        String[] taxon = TAXA[random.nextInt(TAXA.length)];
+        line.append(1975 + random.nextInt(42)).append(',');
+        line.append(pick(APPENDICES, random)).append(',');
+        appendQuotedIfNeeded(line, taxon[4]);
+        for (int level = 0; level < 4; level++) {
+            line.append(',').append(taxon[level]);
+        }
+        line.append(',').append(pick(COUNTRIES, random));
+        line.append(',').append(pick(COUNTRIES, random));
+        line.append(',');
+        if (random.nextInt(4) == 0) {
+            line.append(pick(COUNTRIES, random));
+        }
+        line.append(',');
+        if (random.nextInt(3) > 0) {
+            line.append(random.nextInt(10_000));
+        }
+        line.append(',');
+        if (random.nextInt(3) > 0) {
+            line.append(random.nextInt(100_000) / 10.0);
+        }
+        line.append(',');
+        appendQuotedIfNeeded(line, pick(TERMS, random));
+        line.append(',').append(pick(UNITS, random));
+        line.append(',').append(pick(PURPOSES, random));
+        line.append(',').append(pick(SOURCES, random));
+    }
+
+    private static void appendQuotedIfNeeded(StringBuilder line, String value) {
+        if (value.indexOf(',') >= 0 || value.indexOf('(') >= 0) {
+            line.append('"').append(value).append('"');
+        } else {
+            line.append(value);
+        }
+    }
+
+    private static String pick(String[] values, Random random) {
+        return values[random.nextInt(values.length)];
+    }
+}
@@ -1,254 +1,608 @@
 package grakn.examples.animaltrade;
 
-import grakn.core.client.GraknClient;
-import grakn.core.concept.Concept;
-import grakn.core.concept.answer.ConceptMap;
-import graql.lang.Graql;
-import graql.lang.query.GraqlGet;
 import graql.lang.query.GraqlInsert;
 import graql.lang.query.GraqlQuery;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import static graql.lang.Graql.parseList;
 
-
-/**
- * TODO
- * * Add cmd flag for splitting into separate keyspaces & probabilities (up to 3 - train/test/validate)
- * * refactor for cleaner architecture
- * * Renaming
+/*
+ * Loads the CITES trade data into one or more Grakn keyspaces: the schema, the countries and continents, the taxonomy,
+ * then the trade facts, with a checkpoint to resume from. Or, depending on the options, preprocesses the data into a
+ * table, writes the queries out, or replays written queries instead
  */
 public class App {
+
+    // columns of the trade data with few distinct values, eg. country codes and taxa
+    private static final List<String> CATEGORICAL_COLUMNS = Arrays.asList(
+            "Importer", "Exporter", "Class", "Order", "Family", "Genus", "Taxon", "Unit", "Term", "Purpose", "Source", "App.");
+
     public static void main(String[] args) throws IOException {
+        LoaderConfig config = LoaderConfig.fromArgs(args);
         final String GRAKN_URI = "localhost:48555";
-        final String TRAIN_KEYSPACE = "animaltrade_train";
-        final String TEST_KEYSPACE = "animaltrade_test";
-        final double TRAIN_SPLIT = 0.5;
 
-        GraknClient.Session trainKeyspace = new GraknClient(GRAKN_URI).session(TRAIN_KEYSPACE);
-        GraknClient.Session testKeyspace = new GraknClient(GRAKN_URI).session(TEST_KEYSPACE);
+        File dataFile = new File(config.data);
+        if (config.replay != null) {
+            replayQueries(Paths.get(config.replay), GRAKN_URI, config);
+            return;
+        }
+        // a preprocessed table, when given, is read instead of the CSV
+        Path source = config.table != null ? Paths.get(config.table) : dataFile.toPath();
+        // remade by every load, since a resumed load reads every rejected row again
+        Path deadLetters = Paths.get(config.deadLetters != null ? config.deadLetters : source + ".rejected.csv");
+        if (config.preprocess != null) {
+            preprocess(dataFile, deadLetters, Paths.get(config.preprocess), config);
+            return;
+        }
+        if (config.generate != null) {
+            generateQueries(dataFile, deadLetters, Paths.get(config.generate), config);
+            return;
+        }
+        List<String> keyspaces = config.split.keyspaces();
+        // a stand-in load has its own checkpoint, so it can't be mistaken for how far the real one got
+        String defaultCheckpoint = source + (config.memorySink ? ".memory" : "") + ".checkpoint";
+        Path checkpointPath = Paths.get(config.checkpoint != null ? config.checkpoint : defaultCheckpoint);
+        CheckpointJournal checkpoint = config.resume
+                ? CheckpointJournal.resume(checkpointPath, source, config.split)
+                : CheckpointJournal.start(checkpointPath, source, config.split);
+        TradeTable table = config.table != null ? TradeTable.open(source) : null;
+        // a bare --delta keeps the fingerprints next to the trade data
+        Path fingerprints = config.delta == null ? null
+                : Paths.get(config.delta.equals("true") ? source + ".fingerprints" : config.delta);
+
+        Sink sink = openSink(GRAKN_URI, config);
+        LoaderMetrics metrics = new LoaderMetrics();
+        List<SessionPool> sessions = openSessions(sink, keyspaces, metrics, config);
+        if (config.metricsInterval > 0) {
+            metrics.startReporting(config.metricsInterval);
+        }
 
-        loadSchema(trainKeyspace);
-        loadSchema(testKeyspace);
+        try {
+            List<GraqlQuery> schema = parseSchema(Paths.get(config.schema));
+            ReferenceDataLoader countryRegions = ReferenceDataLoader.read("countries and continents",
+                    new File(config.countries), ',', DataMigrationQueries.getCountryRegionMigrationQueries());
+            // every keyspace is set up at the same time, so more keyspaces don't mean more waiting
+            forEachKeyspace(keyspaces.size(), i -> {
+                loadSchema(sessions.get(i), schema);
+                // a resumed load has already done this if the checkpoint says so
+                if (!checkpoint.dimensionsLoaded(i)) {
+                    try (TransactionWindow window = new TransactionWindow(sessions.get(i), config.inFlight)) {
+                        countryRegions.load(sessions.get(i), window, config.referenceBatchSize, metrics);
+                    }
+                }
+            });
+            // the countries below the continents
+            Set<String> countries = countryRegions.identifiers(1);
+            loadAnimalTradeData(dataFile, table, keyspaces, sessions, config.split, checkpoint, countries,
+                    deadLetters, fingerprints, metrics, config);
+            // every batch is settled, so the tags that told a resume which had committed aren't needed any more
+            forEachKeyspace(keyspaces.size(), i -> {
+                try (Sink.Transaction tx = sessions.get(i).write()) {
+                    tx.define(DataMigrationQueries.getLoadBatchCleanupQuery());
+                    tx.commit();
+                }
+                System.out.printf("Removed the load's batch tags from %s\n", keyspaces.get(i));
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while loading trade data", e);
+        } finally {
+            checkpoint.close();
+            metrics.stop();
+            if (table != null) {
+                table.close();
+            }
+        }
+        report(metrics, sink, config);
+        sessions.forEach(SessionPool::close);
+        sink.close();
 
-        loadCountryRegions(trainKeyspace); // make two load datas: one for each file to load data from
-        loadCountryRegions(testKeyspace);
-        loadAnimalTradeData(trainKeyspace, testKeyspace, TRAIN_SPLIT);
-        trainKeyspace.close();
-        testKeyspace.close();
+    }
 
+    private static Sink openSink(String graknUri, LoaderConfig config) {
+        return config.memorySink
+                ? new RecordingSink(config.sinkQueryMicros * 1000L, config.sinkCommitMicros * 1000L,
+                        config.sinkCommitMicrosPerQuery * 1000L, false)
+                : new GraknSink(graknUri);
     }
 
-    private static void loadSchema(GraknClient.Session session) {
+    // one pool of sessions per keyspace, all on the sink's one client, used by every phase of the load
+    private static List<SessionPool> openSessions(Sink sink, List<String> keyspaces, LoaderMetrics metrics,
+                                                  LoaderConfig config) {
+        List<SessionPool> sessions = new ArrayList<>();
+        for (String keyspace : keyspaces) {
+            SessionPool pool = new SessionPool(sink, keyspace, config.sessions, config.transactionsPerSession, metrics);
+            sessions.add(pool);
+            metrics.registerGauge("pool-utilization-" + keyspace, pool::utilization);
+        }
+        return sessions;
+    }
 
-        Path schemaPath = Paths.get("./data/schema.gql");
-        List<String> schemaQueries = null;
-        try {
-            System.out.println("Loading schema");
-            schemaQueries = Files.readAllLines(schemaPath, StandardCharsets.UTF_8);
-            try (GraknClient.Transaction tx = session.transaction().write()) {
-                Stream<GraqlQuery> query = parseList(schemaQueries.stream().collect(Collectors.joining("\n")));
-                query.forEach(q -> tx.execute(q));
-                tx.commit();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+    private static void report(LoaderMetrics metrics, Sink sink, LoaderConfig config) throws IOException {
+        System.out.println(metrics.summary());
+        System.out.print(metrics.batches().report());
+        if (config.metricsOut != null) {
+            metrics.write(Paths.get(config.metricsOut));
+            System.out.println("Metrics written to " + config.metricsOut);
+        }
+        if (sink instanceof RecordingSink) {
+            System.out.print(((RecordingSink) sink).report());
         }
     }
 
-    private static void loadCountryRegions(GraknClient.Session session) throws IOException {
-        String countryRegionCSV = "/Users/joshua/Documents/grakn_examples/animal-trade/data/country_region_mapping.csv";
-        File countryRegionFile = new File(countryRegionCSV);
-        // retrieve the migration queries for this data
-        MigrationQuery[] countryRegionMigration = DataMigrationQueries.getCountryRegionMigrationQueries();
+    /*
+     * Writes the trade data to a table at `table`, with its codes translated, leaving out the rows that can't be
+     * loaded, which go to `deadLetters` as they would in a load
+     */
+    private static void preprocess(File dataFile, Path deadLetters, Path table, LoaderConfig config) throws IOException {
+        Set<String> countries = ReferenceDataLoader.read("countries and continents", new File(config.countries), ',',
+                DataMigrationQueries.getCountryRegionMigrationQueries()).identifiers(1);
+        String[] header;
+        try (CSVRowReader csv = CSVRowReader.open(dataFile.toPath(), ',', StandardCharsets.UTF_8)) {
+            header = csv.header();
+        }
+        try (RowValidator validator = new RowValidator(countries, header, deadLetters)) {
+            long rows = TradeTable.write(dataFile.toPath(), table, codeTranslations(Paths.get(config.codes)), validator);
+            System.out.printf("Preprocessed %d rows into %s\n", rows, table);
+            if (validator.rejected() > 0) {
+                System.out.printf("Rejected %d rows that can't be loaded, written with the reasons to %s\n",
+                        validator.rejected(), validator.deadLetters());
+            }
+        }
+    }
 
-        // migrate countries and regions
-        try {
-            CSVIterator csv = new CSVIterator(countryRegionFile, ',');
-            for (int i = 0; csv.hasNext(); i++) {
-                Map<String, String> line = csv.next();
-                GraknClient.Transaction tx = session.transaction().write();
-                if (i % 1 == 0) {
-                    System.out.printf("Loaded country-region data: %d, %s\n", i, line.get("ISO"));
+    /*
+     * Writes every insert a load of the trade data would make into `directory`, with no server involved: the countries,
+     * continents and taxa a level at a time, then the facts, built and compressed by the readers into shards per
+     * keyspace. Rows that can't be loaded go to `deadLetters`, as they would in a load
+     * Nothing being known about the keyspaces, every insert matches what it refers to by name
+     */
+    private static void generateQueries(File dataFile, Path deadLetters, Path directory, LoaderConfig config)
+            throws IOException {
+        long start = System.nanoTime();
+        TradeTable table = config.table != null ? TradeTable.open(Paths.get(config.table)) : null;
+        KeyspaceSplit split = config.split;
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < split.size(); i++) {
+            names.add(split.name(i));
+        }
+        MigrationQuery exchangeMigration = DataMigrationQueries.getExchangeMigrationQuery();
+        try (QueryShards shards = new QueryShards(directory, names, config.shards)) {
+            ReferenceDataLoader countryRegions = ReferenceDataLoader.read("countries and continents",
+                    new File(config.countries), ',', DataMigrationQueries.getCountryRegionMigrationQueries());
+            countryRegions.write(shards);
+            TaxonomyLoader taxonomy = table != null ? TaxonomyLoader.scan(table) : TaxonomyLoader.scan(dataFile);
+            taxonomy.write(shards);
+            System.out.printf("Generated the inserts of %d countries and continents and %d taxa\n",
+                    countryRegions.size(), taxonomy.size());
+
+            KeyspaceSplit.Key splitKey;
+            String[] header;
+            if (table != null) {
+                splitKey = split.key(table);
+                header = table.header();
+            } else {
+                try (CSVRowReader csv = CSVRowReader.open(dataFile.toPath(), ',', StandardCharsets.UTF_8)) {
+                    splitKey = split.key(csv);
+                    header = csv.header();
                 }
-                for (MigrationQuery q : countryRegionMigration) {
-                    doMigration(line, q, tx);
+            }
+            // a table's codes are already translated
+            Consumer<CSVRow> translate = table != null ? line -> { } : codeTranslator(header, Paths.get(config.codes));
+            try (RowValidator validator = new RowValidator(countryRegions.identifiers(1), header, deadLetters)) {
+                ParallelCSVReader.RowHandler handler = line -> {
+                    int keyspace = split.keyspaceOf(line, splitKey);
+                    if (!validator.accept(line)) {
+                        return;
+                    }
+                    translate.accept(line);
+                    if (hasQuantity(line)) {
+                        shards.fact(keyspace, exchangeMigration.getQuery(line));
+                    }
+                };
+                readRows(dataFile, table, handler, Collections::singletonList, config, nanos -> { });
+                if (validator.rejected() > 0) {
+                    System.out.printf("Rejected %d rows that can't be loaded, written with the reasons to %s\n",
+                            validator.rejected(), validator.deadLetters());
                 }
-                tx.commit();
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-            throw e;
+            System.out.printf("Generated %d fact inserts into %d shards per keyspace in %s, in %ds\n",
+                    shards.factsWritten(), shards.shards(), directory, (System.nanoTime() - start) / 1_000_000_000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while generating queries", e);
+        } finally {
+            if (table != null) {
+                table.close();
+            }
         }
     }
 
-    private static void loadAnimalTradeData(GraknClient.Session trainSession, GraknClient.Session testSession, double trainSplit) throws IOException {
-
-        String tradeTermCodesFile = "/Users/joshua/Documents/grakn_examples/animal-trade/data/trade_terms.csv";
-        String unitCodesFile = "/Users/joshua/Documents/grakn_examples/animal-trade/data/units.csv";
-        String purposeCodesFile = "/Users/joshua/Documents/grakn_examples/animal-trade/data/purposes.csv";
-        Map<String, String> tradeTermCodes = getCodesFromCsv(tradeTermCodesFile, ' ');
-        Map<String, String> unitCodes = getCodesFromCsv(unitCodesFile, ' ');
-        Map<String, String> purposeCodes = getCodesFromCsv(purposeCodesFile, ' ');
-
-        MigrationQuery[] taxonomyMigration = DataMigrationQueries.getTaxonomyHierarchyMigrationQueries();
-        MigrationQuery importMigration = DataMigrationQueries.getImportMigrationQuery();
-        MigrationQuery exportMigration = DataMigrationQueries.getExportMigrationQuery();
+    /*
+     * Loads the inserts generated into `directory` into the keyspaces of the split, which should be fresh: the schema,
+     * then the levels, in every keyspace at once, then the facts, with as many transactions in flight as a load
+     */
+    private static void replayQueries(Path directory, String graknUri, LoaderConfig config) throws IOException {
+        List<String> keyspaces = config.split.keyspaces();
+        Sink sink = openSink(graknUri, config);
+        LoaderMetrics metrics = new LoaderMetrics();
+        List<SessionPool> sessions = openSessions(sink, keyspaces, metrics, config);
+        if (config.metricsInterval > 0) {
+            metrics.startReporting(config.metricsInterval);
+        }
+        ReplayLoader replay = new ReplayLoader(directory, config.split, sessions, metrics);
+        try {
+            List<GraqlQuery> schema = parseSchema(Paths.get(config.schema));
+            forEachKeyspace(keyspaces.size(), i -> {
+                loadSchema(sessions.get(i), schema);
+                replay.levels(i, config.inFlight, config.batchSize);
+            });
+            replay.facts(new LoadController(config.batchSize, config.maxBatchSize, config.inFlight, config.maxInFlight,
+                    config.adaptive), config.readers);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while replaying queries", e);
+        } finally {
+            metrics.stop();
+        }
+        report(metrics, sink, config);
+        sessions.forEach(SessionPool::close);
+        sink.close();
+    }
 
-        String citiesTradeCSV = "/Users/joshua/Documents/grakn_examples/animal-trade/data/CITIES_data.csv";
-        File dataFile = new File(citiesTradeCSV);
-        Random random = new Random();
+    interface KeyspaceTask {
+        void run(int keyspace) throws IOException;
+    }
 
+    /*
+     * Runs the task for every keyspace on a thread of its own, returning once they have all finished
+     */
+    private static void forEachKeyspace(int keyspaces, KeyspaceTask task) throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(keyspaces);
         try {
-            CSVIterator csv = new CSVIterator(dataFile, ',');
-            for (int i = 0; csv.hasNext(); i++) {
-                boolean loadIntoTrain = random.nextDouble() < trainSplit;
-
-                if (i % 1 == 0) {
-                    System.out.printf("Loaded import/export into %s: %d\n", loadIntoTrain ? "train" : "test", i);
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int i = 0; i < keyspaces; i++) {
+                int keyspace = i;
+                tasks.add(executor.submit(() -> {
+                    task.run(keyspace);
+                    return null;
+                }));
+            }
+            for (Future<?> keyspaceTask : tasks) {
+                try {
+                    keyspaceTask.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    } else if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new RuntimeException("Failed to load keyspace", e.getCause());
                 }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-                Map<String, String> line = csv.next();
+    /*
+     * The schema is parsed once, as one string, and the same queries are defined in every keyspace
+     */
+    // the schema in the file, followed by the loader's own types
+    private static List<GraqlQuery> parseSchema(Path schemaPath) throws IOException {
+        String schema = new String(Files.readAllBytes(schemaPath), StandardCharsets.UTF_8);
+        List<GraqlQuery> queries = parseList(schema).collect(Collectors.toCollection(ArrayList::new));
+        queries.add(DataMigrationQueries.getLoaderSchema());
+        return queries;
+    }
 
-                GraknClient.Session session = loadIntoTrain ? trainSession : testSession;
-                loadTaxonomyHierarchy(line, taxonomyMigration, session);
+    private static void loadSchema(Sink.Session session, List<GraqlQuery> schema) {
+        System.out.println("Loading schema");
+        try (Sink.Transaction tx = session.write()) {
+            schema.forEach(tx::define);
+            tx.commit();
+        }
+    }
 
-                // replace the various codes in the line with full names, if we have a mapping
-                String unit = unitCodes.get(line.get("Unit"));
-                if (unit != null) {
-                    line.replace("Unit", unit);
+    /*
+     * The taxonomy is loaded into every keyspace first, after which the import/export rows are split between
+     * the keyspaces and loaded in batches, with several transactions in flight per keyspace
+     * Every committed batch goes into the checkpoint, and rows it already has are not read again
+     * The rows come from the preprocessed `table` if there is one, with their codes already translated, else the CSV
+     * Rows that can't be loaded, eg. with an importer that isn't one of the `countries`, go to `deadLetters` instead
+     * Given the `fingerprints` of a previous load, only the rows new since then are loaded, and the fingerprints
+     * of this load replace them once every row is committed; null loads every row
+     */
+    private static void loadAnimalTradeData(File dataFile, TradeTable table, List<String> keyspaces,
+                                            List<SessionPool> sessions, KeyspaceSplit split, CheckpointJournal checkpoint,
+                                            Set<String> countries, Path deadLetters, Path fingerprintsPath, LoaderMetrics metrics,
+                                            LoaderConfig config)
+            throws IOException, InterruptedException {
+
+        MigrationQuery exchangeMigration = DataMigrationQueries.getExchangeMigrationQuery();
+
+        // phase one: every distinct taxon, in hierarchy order, into all the keyspaces at once
+        boolean taxonomyNeeded = false;
+        for (int i = 0; i < sessions.size(); i++) {
+            taxonomyNeeded |= !checkpoint.dimensionsLoaded(i);
+        }
+        if (taxonomyNeeded) {
+            TaxonomyLoader taxonomy = table != null ? TaxonomyLoader.scan(table) : TaxonomyLoader.scan(dataFile);
+            System.out.printf("Found %d distinct taxa\n", taxonomy.size());
+            forEachKeyspace(sessions.size(), i -> {
+                if (!checkpoint.dimensionsLoaded(i)) {
+                    try (TransactionWindow window = new TransactionWindow(sessions.get(i), config.inFlight)) {
+                        taxonomy.load(sessions.get(i), window, config.batchSize, metrics);
+                    }
+                    checkpoint.markDimensionsLoaded(i);
                 }
+            });
+        }
 
-                String term = tradeTermCodes.get(line.get("Term"));
-                if (term != null) {
-                    line.replace("Term", term);
+        // phase two: the facts, which only refer to taxa and countries that now exist, and so can match them by id
+        List<ConceptIndex> indexes = new ArrayList<>(Collections.nCopies(sessions.size(), ConceptIndex.EMPTY));
+        forEachKeyspace(sessions.size(), i -> {
+            if (checkpoint.hasUnsettled(i)) {
+                // batches the interrupted load may or may not have committed, looked for by their tags
+                try (Sink.Transaction tx = sessions.get(i).read()) {
+                    int committed = checkpoint.settle(i,
+                            batch -> tx.exists(DataMigrationQueries.getLoadBatchExistsQuery(batch)));
+                    System.out.printf("Found %d batches the interrupted load committed to %s without recording it\n",
+                            committed, keyspaces.get(i));
                 }
-
-                String purpose = purposeCodes.get(line.get("Purpose"));
-                if (purpose != null) {
-                    line.replace("Purpose", purpose);
+            }
+            indexes.set(i, ConceptIndex.fetch(sessions.get(i)));
+            metrics.registerIndex(keyspaces.get(i), indexes.get(i));
+            System.out.printf("Indexed %s in %s\n", indexes.get(i), keyspaces.get(i));
+        });
+        // the columns with few distinct values, each of which is made into a String once; a table already does this
+        List<Integer> internColumns = new ArrayList<>();
+        List<ValueDictionary> dictionaries = new ArrayList<>();
+        KeyspaceSplit.Key splitKey;
+        String[] header;
+        if (table != null) {
+            splitKey = split.key(table);
+            header = table.header();
+        } else {
+            try (CSVRowReader csv = CSVRowReader.open(dataFile.toPath(), ',', StandardCharsets.UTF_8)) {
+                for (String column : CATEGORICAL_COLUMNS) {
+                    ValueDictionary dictionary = new ValueDictionary(StandardCharsets.UTF_8);
+                    internColumns.add(csv.column(column));
+                    dictionaries.add(dictionary);
+                    metrics.registerGauge("distinct-" + column, dictionary::size);
                 }
+                splitKey = split.key(csv);
+                header = csv.header();
+            }
+        }
+        LoadController controller = new LoadController(config.batchSize, config.maxBatchSize, config.inFlight,
+                config.maxInFlight, config.adaptive);
+        // a table's codes are already translated
+        Consumer<CSVRow> translate = table != null ? line -> { } : codeTranslator(header, Paths.get(config.codes));
+        LongConsumer parseNanos = nanos -> metrics.record(LoaderMetrics.Stage.PARSE, "CITES", nanos);
+        try (RowFingerprints fingerprints = fingerprintsPath != null ? RowFingerprints.open(fingerprintsPath, header) : null;
+             RowValidator validator = new RowValidator(countries, header, deadLetters)) {
+            metrics.registerGauge("rejected-rows", validator::rejected);
+            if (checkpoint.hasCovered() && (fingerprints != null || checkpoint.rejectedRows() > 0)) {
+                // rows an interrupted run of this load committed or skipped aren't read again below, but are part of
+                // this load: those rejected go to the dead letter file again, and the rest claim the fingerprints
+                // they claimed then, so the rows left to read are compared against what the previous load had left
+                readRows(dataFile, table, line -> {
+                    if (validator.accept(line) && fingerprints != null) {
+                        translate.accept(line);
+                        fingerprints.isNew(fingerprints.fingerprint(line));
+                    }
+                }, checkpoint::covered, config, parseNanos);
+            }
+            try (FactLoader<CSVRow> facts = new FactLoader<>(keyspaces, sessions, controller,
+                    LoaderMetrics.queryClass(exchangeMigration),
+                    exchangeRowLoaders(exchangeMigration, indexes, checkpoint, validator, metrics), metrics)) {
+                // runs on the reader threads, so the code translation happens in parallel as well
+                ParallelCSVReader.RowHandler handler = line -> {
+                    // decided before the codes are replaced, from the row as it is in the file
+                    int keyspace = split.keyspaceOf(line, splitKey);
+                    metrics.rowRead();
+
+                    for (int i = 0; i < internColumns.size(); i++) {
+                        line.intern(internColumns.get(i), dictionaries.get(i));
+                    }
+                    // checked as it is in the file, so that is how a rejected row is written out
+                    if (!validator.accept(line)) {
+                        checkpoint.skipped(line, true);
+                        return;
+                    }
+                    translate.accept(line);
+                    // already in the keyspaces, from the previous load
+                    if (fingerprints != null && !fingerprints.isNew(fingerprints.fingerprint(line))) {
+                        checkpoint.skipped(line, false);
+                        return;
+                    }
+
+                    // the reader reuses its row, so the batch gets its own copy
+                    facts.submit(keyspace, line.snapshot());
+                };
+                // byte offsets into the CSV, or row indexes into the table
+                Function<CSVChunkSplitter.Chunk, List<CSVChunkSplitter.Chunk>> remaining = data -> {
+                    if (checkpoint.committedRows() > 0) {
+                        // a compressed CSV's length isn't known until it has been read
+                        String of = data.end == Long.MAX_VALUE ? "" : " of " + data.end;
+                        System.out.printf("Resuming: %d rows already committed, everything before position %d%s\n",
+                                checkpoint.committedRows(), checkpoint.committedOffset(data.start), of);
+                    }
+                    return checkpoint.remaining(data);
+                };
+                readRows(dataFile, table, handler, remaining, config, parseNanos);
+                if (validator.rejected() > 0) {
+                    System.out.printf("Rejected %d rows that can't be loaded, written with the reasons to %s\n",
+                            validator.rejected(), validator.deadLetters());
+                }
+            }
+            if (fingerprints != null) {
+                // only once every new row is committed, else a failed load would leave them out of the next delta
+                fingerprints.write(fingerprintsPath);
+                System.out.printf("Delta: %d new rows loaded, %d unchanged, %d removed since the previous load\n",
+                        fingerprints.added(), fingerprints.unchanged(), fingerprints.removed());
+            }
+        }
+    }
 
-                // push the session down to avoid inserting same attribtue twice in once insert
-                loadExchange(line, importMigration, exportMigration, session);
+    // the rows in the parts of the trade data that `ranges` picks, from the table if there is one, else the CSV
+    private static void readRows(File dataFile, TradeTable table, ParallelCSVReader.RowHandler handler,
+                                 Function<CSVChunkSplitter.Chunk, List<CSVChunkSplitter.Chunk>> ranges,
+                                 LoaderConfig config, LongConsumer parseNanos) throws IOException, InterruptedException {
+        if (table != null) {
+            table.read(handler, ranges, config.readers, parseNanos);
+        } else {
+            new ParallelCSVReader(dataFile.toPath(), ',', StandardCharsets.UTF_8, config.readers, config.chunkSizeMb << 20)
+                    .read(handler, ranges, parseNanos);
+        }
+    }
+
+    // replaces the various codes in a line with full names, if we have a mapping, for rows with the given `header`
+    private static Consumer<CSVRow> codeTranslator(String[] header, Path codesDirectory) {
+        List<String> columns = Arrays.asList(header);
+        List<Integer> codeColumns = new ArrayList<>();
+        List<Map<String, String>> codes = new ArrayList<>();
+        for (Map.Entry<String, Map<String, String>> translation : codeTranslations(codesDirectory).entrySet()) {
+            int column = columns.indexOf(translation.getKey());
+            if (column < 0) {
+                throw new IllegalArgumentException("No column named " + translation.getKey() + ", columns are " + columns);
             }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
+            codeColumns.add(column);
+            codes.add(translation.getValue());
         }
+        return line -> {
+            for (int i = 0; i < codeColumns.size(); i++) {
+                int column = codeColumns.get(i);
+                String translated = codes.get(i).get(line.get(column));
+                if (translated != null) {
+                    line.translate(column, translated);
+                }
+            }
+        };
+    }
 
+    // the columns of the trade data holding codes, and what each code stands for
+    private static Map<String, Map<String, String>> codeTranslations(Path directory) {
+        Map<String, Map<String, String>> translations = new LinkedHashMap<>();
+        translations.put("Unit", getCodesFromCsv(directory.resolve("units.csv"), ' '));
+        translations.put("Term", getCodesFromCsv(directory.resolve("trade_terms.csv"), ' '));
+        translations.put("Purpose", getCodesFromCsv(directory.resolve("purposes.csv"), ' '));
+        return translations;
     }
 
-    private static Map<String, String> getCodesFromCsv(String resourcePath, char separator) {
-        File csvFile = new File(resourcePath);
+    private static Map<String, String> getCodesFromCsv(Path resourcePath, char separator) {
+        File csvFile = resourcePath.toFile();
         Map<String, String> codes = new HashMap<>();
-        try {
-            CSVIterator csv = new CSVIterator(csvFile, separator);
+        // without its codes every row would be loaded untranslated, so a file that can't be read stops the load
+        try (CSVIterator csv = new CSVIterator(csvFile, separator)) {
             csv.forEachRemaining(line -> codes.put(line.get("Code"), line.get("Description")));
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new UncheckedIOException("Failed to read the codes in " + csvFile, e);
         }
         return codes;
     }
 
-    private static void loadTaxonomyHierarchy(Map<String, String> line, MigrationQuery[] taxonomyMigration, GraknClient.Session session) {
-        // insert singleton taxonomy hierarchy instances
-        GraknClient.Transaction tx = session.transaction().write();
-        for (MigrationQuery q : taxonomyMigration) {
-            doMigration(line, q, tx);
-        }
-        tx.commit();
+    // a line with neither an importer nor an exporter reported quantity has nothing to insert; a record cut short
+    // before the quantity columns has neither
+    private static boolean hasQuantity(Map<String, String> line) {
+        return isReported(line.get("Importer reported quantity")) || isReported(line.get("Exporter reported quantity"));
     }
 
-    private static void loadExchange(Map<String, String> line, MigrationQuery importMigration,
-                                     MigrationQuery exportMigration, GraknClient.Session session) {
+    private static boolean isReported(String quantity) {
+        return quantity != null && !quantity.isEmpty();
+    }
 
-        // if the "importer reported quantity" is non-empty string
-        // add an import
-        String imported = line.get("Importer reported quantity");
-        List<ConceptMap> importMigrationResult = null;
-        if (imported.length() > 0) {
-            try (GraknClient.Transaction tx = session.transaction().write()) {
-                importMigrationResult = doMigration(line, importMigration, tx);
-                tx.commit();
-            }
-        }
+    // for each keyspace, in the order of `indexes`, with every batch going into the checkpoint
+    private static List<BatchLoader.RowLoader<CSVRow>> exchangeRowLoaders(MigrationQuery exchangeMigration,
+                                                                        List<ConceptIndex> indexes,
+                                                                        CheckpointJournal checkpoint,
+                                                                        RowValidator validator, LoaderMetrics metrics) {
+        List<BatchLoader.RowLoader<CSVRow>> rowLoaders = new ArrayList<>();
+        for (int i = 0; i < indexes.size(); i++) {
+            int keyspace = i;
+            rowLoaders.add(new BatchLoader.RowLoader<CSVRow>() {
+                @Override
+                public void load(CSVRow line, Sink.Transaction tx) {
+                    loadExchange(line, exchangeMigration, indexes.get(keyspace), tx, metrics);
+                }
 
-        // if "exported reported quantity" is non-empty string, add an export
-        String exported = line.get("Exporter reported quantity");
-        if (exported.length() > 0) {
-            Concept importConcept = null;
-            Concept exportConcept = null;
-            if (importMigrationResult != null && importMigrationResult.size() > 0) {
-                try (GraknClient.Transaction tx = session.transaction().write()) {
-                    List<ConceptMap> exportMigrationResult = doMigration(line, exportMigration, tx);
-                    // add relationships between the import and export
-                    importConcept = importMigrationResult.get(0).get("import");
-                    exportConcept = exportMigrationResult.get(0).get("export");
-                    tx.commit();
+                // a row the validator let through, but whose insert couldn't be built all the same
+                @Override
+                public void failed(CSVRow line, RuntimeException failure) {
+                    validator.reject(line, "insert could not be built: " + failure);
                 }
-                try (GraknClient.Transaction tx = session.transaction().write()) {
-                    addRelationship(tx, "import-export-correspondence",
-                            Arrays.asList("corresponding-import", "corresponding-export"),
-                            Arrays.asList(importConcept, exportConcept));
-                    tx.commit();
+
+                // journaled as pending, and tagged so a resumed load can tell whether it got as far as committing
+                @Override
+                public void committing(List<CSVRow> rows, Sink.Transaction tx) {
+                    tx.insert(DataMigrationQueries.getLoadBatchQuery(checkpoint.pending(keyspace, rows)));
                 }
-            }
-        }
-    }
 
-    private static List<ConceptMap> doMigration(Map<String, String> line, MigrationQuery query, GraknClient.Transaction tx) {
-        boolean exists = false;
-        if (query instanceof SingletonInsertMigrationQuery) {
-            String checkExistenceQuery = ((SingletonInsertMigrationQuery) query).getCheckExistQuery(line);
-            GraqlGet parsedQuery = Graql.parse(checkExistenceQuery).asGet();
-            Stream<ConceptMap> response = tx.stream(parsedQuery);
-            exists = response.findFirst().isPresent();
-        }
+                // a commit that failed may have gone through, eg. if the connection dropped, which its tag shows
+                @Override
+                public boolean wasCommitted(List<CSVRow> rows, Sink.Session session) {
+                    String tag = checkpoint.tag(rows);
+                    if (tag == null) {
+                        return false;
+                    }
+                    try (Sink.Transaction tx = session.read()) {
+                        return tx.exists(DataMigrationQueries.getLoadBatchExistsQuery(tag));
+                    }
+                }
 
-        // if the data of the query does not exist, insert it
-        // the boolean is used for SingletonInsertMigrationQuery
-        if (!exists) {
-            String migrationQuery = query.getQuery(line);
-            GraqlInsert parsedQuery = Graql.parse(migrationQuery).asInsert();
-            List<ConceptMap> response = tx.execute(parsedQuery);
-            // for detecting missing country codes, remove later
-            System.out.println(response.size());
-            if (response.size() != 1) {
-                System.out.println(migrationQuery);
-            }
-            return response;
+                @Override
+                public void rolledBack(List<CSVRow> rows) {
+                    checkpoint.aborted(keyspace, rows);
+                }
+
+                @Override
+                public void committed(List<CSVRow> rows) {
+                    checkpoint.committed(keyspace, rows);
+                }
+            });
         }
-        return null;
+        return rowLoaders;
     }
 
-    private static List<ConceptMap> addRelationship(GraknClient.Transaction tx, String relationship, List<String> roles, List<Concept> concepts) {
-
-        List<String> conceptIds = concepts.stream().map(concept -> concept.id().toString()).collect(Collectors.toList());
-        String addRelationshipQuery = AddRelationshipQuery.getAddRelationshipQuery(relationship, roles, conceptIds);
-
-        GraqlInsert query = Graql.parse(addRelationshipQuery).asInsert();
-        return tx.execute(query);
+    static void loadExchange(Map<String, String> line, MigrationQuery exchangeMigration, ConceptIndex index,
+                             Sink.Transaction tx, LoaderMetrics metrics) {
+        if (!hasQuantity(line)) {
+            return;
+        }
+        String queryClass = LoaderMetrics.queryClass(exchangeMigration);
+        long start = System.nanoTime();
+        GraqlInsert insert = exchangeMigration.getQuery(line, index);
+        long built = System.nanoTime();
+        int response = tx.insert(insert);
+        metrics.record(LoaderMetrics.Stage.BUILD, queryClass, built - start);
+        metrics.record(LoaderMetrics.Stage.INSERT, queryClass, System.nanoTime() - built);
+        if (response != 1) {
+            // eg. a country code missing from the country list
+            metrics.recordUnmatched(queryClass);
+        }
     }
 }
-
-
-
-
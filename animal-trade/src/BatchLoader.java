@@ -0,0 +1,272 @@
+package grakn.examples.animaltrade;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/*
+ * Groups rows into write transactions of up to `batchSize` rows each, rather than a transaction per row
+ * Each full batch is handed to a TransactionWindow, so several batches are committed at once; adding a row
+ * blocks while the window is full. Rows can be added from any number of threads
+ *
+ * The batch size is either fixed, or whatever a LoadController has settled on when each batch is started, in which
+ * case the controller hears about every commit and failure
+ *
+ * If committing a batch fails (typically a conflict with another writer) the batch is split in half and each
+ * half retried in its own transaction, down to single rows, which get a few more attempts before giving up
+ * Each split and each row given up on is counted in LoaderMetrics, which reports them in its summary, rather than
+ * printed as it happens
+ * Only failures of the transaction itself, a Sink.TransactionException, are retried. A row whose insert can't be
+ * built, eg. for a number that doesn't parse, would fail the same way every time, so it is left out of its batch
+ * and counted as an insert that matched nothing, and the rest of the batch carries on without it
+ *
+ * A commit that fails may have gone through all the same, eg. when the connection drops before the server's answer
+ * comes back, and inserting the rows again would insert them twice. So before a failed commit is retried, the
+ * RowLoader is asked whether the rows are there; if it can't find out, the load stops rather than risk it
+ */
+class BatchLoader<T> implements AutoCloseable {
+
+    private static final int SINGLE_ROW_ATTEMPTS = 3;
+
+    interface RowLoader<T> {
+        void load(T row, Sink.Transaction tx);
+
+        // called for a row left out of its batch because loading it failed other than in the transaction
+        default void failed(T row, RuntimeException failure) {
+        }
+
+        // called once every row is in the transaction, just before it commits, eg. to write something alongside them
+        default void committing(List<T> rows, Sink.Transaction tx) {
+        }
+
+        // called when committing the rows failed, to find out whether the commit went through anyway
+        default boolean wasCommitted(List<T> rows, Sink.Session session) {
+            return false;
+        }
+
+        // called when a transaction this loader wrote the rows into failed to commit
+        default void rolledBack(List<T> rows) {
+        }
+
+        // called once the rows are committed, on the thread that committed them
+        default void committed(List<T> rows) {
+        }
+    }
+
+    private final TransactionWindow window;
+    private final String queryClass;
+    private final int batchSize;
+    // null for a fixed batch size
+    private final LoadController controller;
+    private final RowLoader<T> rowLoader;
+    private final LoaderMetrics metrics;
+    private final BatchStatistics statistics;
+    private List<T> pending;
+    // batches handed to the window and not yet known to be finished
+    private final List<CompletableFuture<Void>> submitted = new ArrayList<>();
+
+    /*
+     * Commit latencies are recorded under `queryClass`, the kind of rows this loads
+     */
+    BatchLoader(TransactionWindow window, String queryClass, int batchSize, RowLoader<T> rowLoader, LoaderMetrics metrics) {
+        this(window, queryClass, batchSize, null, rowLoader, metrics);
+    }
+
+    BatchLoader(TransactionWindow window, String queryClass, LoadController controller, RowLoader<T> rowLoader,
+                LoaderMetrics metrics) {
+        this(window, queryClass, controller.batchSize(), controller, rowLoader, metrics);
+    }
+
+    private BatchLoader(TransactionWindow window, String queryClass, int batchSize, LoadController controller,
+                        RowLoader<T> rowLoader, LoaderMetrics metrics) {
+        this.window = window;
+        this.queryClass = queryClass;
+        this.batchSize = batchSize;
+        this.controller = controller;
+        this.rowLoader = rowLoader;
+        this.metrics = metrics;
+        this.statistics = metrics.batches();
+        this.pending = new ArrayList<>(batchSize);
+    }
+
+    private int batchSize() {
+        return controller != null ? controller.batchSize() : batchSize;
+    }
+
+    synchronized void add(T row) {
+        pending.add(row);
+        if (pending.size() >= batchSize()) {
+            flush();
+        }
+    }
+
+    /*
+     * Submits whatever rows are pending, without waiting for them to commit
+     */
+    synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<T> batch = pending;
+        pending = new ArrayList<>(batchSize());
+        // holding the lock while the window is full holds back every thread adding rows, which is the point
+        try {
+            submitted.removeIf(CompletableFuture::isDone);
+            submitted.add(window.submit(session -> load(batch, session)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for room in the transaction window", e);
+        }
+    }
+
+    /*
+     * Waits for everything submitted so far to commit, rethrowing the first failure
+     */
+    void await() {
+        List<CompletableFuture<Void>> outstanding;
+        synchronized (this) {
+            outstanding = new ArrayList<>(submitted);
+        }
+        TransactionWindow.awaitAll(outstanding);
+        synchronized (this) {
+            submitted.removeAll(outstanding);
+        }
+    }
+
+    private void load(List<T> batch, Sink.Session session) {
+        List<T> committed;
+        try {
+            committed = commit(batch, session);
+        } catch (Sink.TransactionException e) {
+            recordFailure(batch.size());
+            if (batch.size() == 1) {
+                retrySingleRow(batch, session, e);
+                return;
+            }
+            // counted rather than printed, as a conflict can split many batches at once; the summary shows them
+            metrics.recordBatchSplit(e.getMessage());
+            int half = batch.size() / 2;
+            load(batch.subList(0, half), session);
+            load(batch.subList(half, batch.size()), session);
+            return;
+        }
+        // outside the retries, the rows are in the keyspace whatever happens to this
+        if (!committed.isEmpty()) {
+            rowLoader.committed(committed);
+        }
+    }
+
+    private void retrySingleRow(List<T> batch, Sink.Session session, Sink.TransactionException firstFailure) {
+        Sink.TransactionException lastFailure = firstFailure;
+        for (int attempt = 1; attempt < SINGLE_ROW_ATTEMPTS; attempt++) {
+            List<T> committed;
+            try {
+                committed = commit(batch, session);
+            } catch (Sink.TransactionException e) {
+                recordFailure(1);
+                lastFailure = e;
+                continue;
+            }
+            if (!committed.isEmpty()) {
+                rowLoader.committed(committed);
+            }
+            return;
+        }
+        metrics.recordRowAbandoned();
+        throw new Sink.TransactionException("Gave up on row after " + SINGLE_ROW_ATTEMPTS + " attempts: " + batch.get(0),
+                lastFailure);
+    }
+
+    /*
+     * Commits the rows in one transaction, returning those committed: the batch itself, unless a row was left out
+     */
+    private List<T> commit(List<T> batch, Sink.Session session) {
+        long start = System.nanoTime();
+        List<T> loaded = batch;
+        Sink.TransactionException commitFailure = null;
+        metrics.transactionOpened();
+        try (Sink.Transaction tx = session.write()) {
+            try {
+                for (int i = 0; i < batch.size(); i++) {
+                    T row = batch.get(i);
+                    try {
+                        rowLoader.load(row, tx);
+                    } catch (Sink.TransactionException e) {
+                        throw e;
+                    } catch (RuntimeException e) {
+                        metrics.recordUnmatched(queryClass);
+                        rowLoader.failed(row, e);
+                        if (loaded == batch) {
+                            loaded = new ArrayList<>(batch.subList(0, i));
+                        }
+                        continue;
+                    }
+                    if (loaded != batch) {
+                        loaded.add(row);
+                    }
+                }
+                if (loaded.isEmpty()) {
+                    return loaded;
+                }
+                rowLoader.committing(loaded, tx);
+                long commitStart = System.nanoTime();
+                try {
+                    tx.commit();
+                    metrics.record(LoaderMetrics.Stage.COMMIT, queryClass, System.nanoTime() - commitStart);
+                } catch (Sink.TransactionException e) {
+                    // checked once the transaction is closed
+                    commitFailure = e;
+                }
+            } catch (RuntimeException e) {
+                rowLoader.rolledBack(loaded);
+                throw e;
+            }
+        } finally {
+            metrics.transactionClosed();
+        }
+        if (commitFailure != null && !wasCommitted(loaded, session, commitFailure)) {
+            rowLoader.rolledBack(loaded);
+            throw commitFailure;
+        }
+        long nanos = System.nanoTime() - start;
+        statistics.recordCommit(loaded.size(), nanos);
+        metrics.rowsCommitted(loaded.size());
+        if (controller != null) {
+            controller.committed(loaded.size(), nanos);
+        }
+        return loaded;
+    }
+
+    private boolean wasCommitted(List<T> rows, Sink.Session session, Sink.TransactionException commitFailure) {
+        boolean committed;
+        try {
+            committed = rowLoader.wasCommitted(rows, session);
+        } catch (RuntimeException e) {
+            // neither rolled back nor committed, so a checkpoint keeps them as pending, to be settled on resume
+            IllegalStateException unknown = new IllegalStateException("Committing a batch of " + rows.size()
+                    + " rows failed, and whether it went through anyway could not be checked", e);
+            unknown.addSuppressed(commitFailure);
+            throw unknown;
+        }
+        if (committed) {
+            metrics.recordCommitRecovered();
+        }
+        return committed;
+    }
+
+    private void recordFailure(int rows) {
+        statistics.recordFailure(rows);
+        if (controller != null) {
+            controller.failed();
+        }
+    }
+
+    /*
+     * Submits the last rows and waits for all of them to commit
+     */
+    @Override
+    public void close() {
+        flush();
+        await();
+    }
+}
@@ -0,0 +1,48 @@
+package grakn.examples.animaltrade;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Rows per second achieved for each size of committed batch, so the batch size can be tuned
+ * Batches that were split after a failure show up under their smaller sizes
+ */
+class BatchStatistics {
+
+    private static class SizeTotals {
+        long batches;
+        long rows;
+        long nanos;
+        long failedBatches;
+    }
+
+    private final Map<Integer, SizeTotals> totals = new TreeMap<>();
+
+    synchronized void recordCommit(int rows, long nanos) {
+        SizeTotals sizeTotals = totalsFor(rows);
+        sizeTotals.batches++;
+        sizeTotals.rows += rows;
+        sizeTotals.nanos += nanos;
+    }
+
+    synchronized void recordFailure(int rows) {
+        totalsFor(rows).failedBatches++;
+    }
+
+    private SizeTotals totalsFor(int rows) {
+        return totals.computeIfAbsent(rows, size -> new SizeTotals());
+    }
+
+    synchronized String report() {
+        StringBuilder sb = new StringBuilder("batch size | batches | failed | rows/sec\n");
+        for (Map.Entry<Integer, SizeTotals> entry : totals.entrySet()) {
+            SizeTotals sizeTotals = entry.getValue();
+            double seconds = sizeTotals.nanos / (double) TimeUnit.SECONDS.toNanos(1);
+            double rowsPerSecond = seconds > 0 ? sizeTotals.rows / seconds : 0;
+            sb.append(String.format("%10d | %7d | %6d | %8.1f\n",
+                    entry.getKey(), sizeTotals.batches, sizeTotals.failedBatches, rowsPerSecond));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,278 @@
+package grakn.examples.animaltrade;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Divides a CSV file into byte ranges that each start and end on a record boundary, so they can be parsed independently
+ *
+ * A newline only ends a record outside quotes, and a quote only opens a quoted field at the start of a field,
+ * so finding boundaries needs the same quote and escape rules as CSVRowReader. That takes one pass over the bytes,
+ * but it only tracks a handful of states per byte, far cheaper than parsing and building the rows
+ */
+class CSVChunkSplitter {
+
+    static final long DEFAULT_CHUNK_SIZE = 64L << 20;
+
+    private static final int SCAN_BUFFER_SIZE = 1 << 20;
+
+    private enum State {
+        FIELD_START, UNQUOTED, QUOTED, QUOTE_IN_QUOTED, AFTER_QUOTED
+    }
+
+    static class Chunk {
+        final long start;
+        final long end;
+
+        Chunk(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + start + ", " + end + ")";
+        }
+    }
+
+    /*
+     * Ranges of roughly `chunkSize` bytes covering every record between `dataStart` and `dataEnd`,
+     * which must themselves be record boundaries, eg. the offset just past the header and the end of the file
+     */
+    static List<Chunk> split(FileChannel file, long dataStart, long dataEnd, long chunkSize, char separator) throws IOException {
+        long size = dataEnd;
+        List<Chunk> chunks = new ArrayList<>();
+        long chunkStart = dataStart;
+        long nextSplit = dataStart + chunkSize;
+
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        byte[] bytes = buffer.array();
+        Boundaries boundaries = new Boundaries(separator);
+        long offset = dataStart;
+        while (offset < size && nextSplit < size) {
+            buffer.clear();
+            if (size - offset < buffer.capacity()) {
+                buffer.limit((int) (size - offset));
+            }
+            int read = file.read(buffer, offset);
+            if (read < 0) {
+                break;
+            }
+            int boundary = 0;
+            while ((boundary = boundaries.next(bytes, boundary, read)) >= 0) {
+                long recordStart = offset + boundary;
+                if (recordStart >= nextSplit && recordStart < size) {
+                    chunks.add(new Chunk(chunkStart, recordStart));
+                    chunkStart = recordStart;
+                    nextSplit = recordStart + chunkSize;
+                }
+            }
+            offset += read;
+        }
+        if (chunkStart < size) {
+            chunks.add(new Chunk(chunkStart, size));
+        }
+        return chunks;
+    }
+
+    /*
+     * Finds where records end, carrying the quote and escape state from one call to the next
+     */
+    private static class Boundaries {
+        private final char separator;
+        private State state = State.FIELD_START;
+        private boolean escaped = false;
+
+        Boundaries(char separator) {
+            this.separator = separator;
+        }
+
+        // the index just past the first record to end in bytes[from, to), or -1 if none does
+        int next(byte[] bytes, int from, int to) {
+            for (int i = from; i < to; i++) {
+                byte b = bytes[i];
+                if (escaped) {
+                    // whatever follows an escape is part of the field
+                    escaped = false;
+                    if (state == State.FIELD_START) {
+                        state = State.UNQUOTED;
+                    }
+                    continue;
+                }
+                switch (state) {
+                    case QUOTED:
+                        if (b == '\\') {
+                            escaped = true;
+                        } else if (b == '"') {
+                            state = State.QUOTE_IN_QUOTED;
+                        }
+                        continue;
+                    case QUOTE_IN_QUOTED:
+                        if (b == '"') {
+                            // doubled quote, still inside the field
+                            state = State.QUOTED;
+                            continue;
+                        }
+                        state = State.AFTER_QUOTED;
+                        break;
+                    case FIELD_START:
+                        if (b == '"') {
+                            state = State.QUOTED;
+                            continue;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+                // outside quotes
+                if (b == separator) {
+                    state = State.FIELD_START;
+                } else if (b == '\n') {
+                    state = State.FIELD_START;
+                    return i + 1;
+                } else if (b == '\r') {
+                    state = State.FIELD_START;
+                } else if (b == '\\') {
+                    escaped = true;
+                } else if (b != ' ' && b != '\t' && state == State.FIELD_START) {
+                    state = State.UNQUOTED;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /*
+     * Some of a CSV read from a stream, held in memory: `length` bytes of `bytes`, from offset `start` of the stream
+     */
+    static class Block {
+        final long start;
+        final byte[] bytes;
+        final int length;
+
+        Block(long start, byte[] bytes, int length) {
+            this.start = start;
+            this.bytes = bytes;
+            this.length = length;
+        }
+
+        long end() {
+            return start + length;
+        }
+
+        // the part of the block within `chunk`, which must overlap it, as a channel of its own
+        ReadableByteChannel channel(Chunk chunk) {
+            int from = (int) (Math.max(chunk.start, start) - start);
+            int to = (int) (Math.min(chunk.end, end()) - start);
+            return Channels.newChannel(new ByteArrayInputStream(bytes, from, to - from));
+        }
+    }
+
+    /*
+     * Divides a CSV read from a stream, eg. as it is decompressed, into blocks that start and end on record boundaries,
+     * the same ones `split` would find in the file. The stream can't be read again from an offset, so each block is
+     * kept in memory until it has been parsed
+     */
+    static class StreamSplitter {
+        private final ReadableByteChannel input;
+        private final Boundaries boundaries;
+        // read past the end of the last block, and not yet scanned
+        private byte[] carried = new byte[0];
+        private long offset;
+
+        StreamSplitter(ReadableByteChannel input, char separator) {
+            this.input = input;
+            this.boundaries = new Boundaries(separator);
+        }
+
+        /*
+         * The next block, ending on the first record boundary at least `minSize` bytes in, or at the end of the stream;
+         * null once all of it has been read
+         */
+        Block next(int minSize) throws IOException {
+            byte[] bytes = Arrays.copyOf(carried, Math.max(carried.length, minSize) + SCAN_BUFFER_SIZE);
+            int length = carried.length;
+            int scanned = 0;
+            while (true) {
+                while (scanned < length) {
+                    int boundary = boundaries.next(bytes, scanned, length);
+                    if (boundary < 0) {
+                        scanned = length;
+                    } else if (boundary >= minSize) {
+                        return cut(bytes, boundary, length);
+                    } else {
+                        scanned = boundary;
+                    }
+                }
+                if (length == bytes.length) {
+                    // a record longer than the block so far
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+                int read = input.read(ByteBuffer.wrap(bytes, length, bytes.length - length));
+                if (read < 0) {
+                    carried = new byte[0];
+                    return length == 0 ? null : cut(bytes, length, length);
+                }
+                length += read;
+            }
+        }
+
+        private Block cut(byte[] bytes, int end, int length) {
+            carried = Arrays.copyOfRange(bytes, end, length);
+            Block block = new Block(offset, bytes, end);
+            offset += end;
+            return block;
+        }
+    }
+
+    /*
+     * A view of one chunk as its own channel, using positional reads so many can share the same FileChannel
+     */
+    static ReadableByteChannel channel(FileChannel file, Chunk chunk) {
+        return new ReadableByteChannel() {
+            private long position = chunk.start;
+            private boolean open = true;
+
+            @Override
+            public int read(ByteBuffer destination) throws IOException {
+                long remaining = chunk.end - position;
+                if (remaining <= 0) {
+                    return -1;
+                }
+                if (destination.remaining() > remaining) {
+                    ByteBuffer limited = destination.duplicate();
+                    limited.limit(limited.position() + (int) remaining);
+                    int read = file.read(limited, position);
+                    if (read > 0) {
+                        destination.position(destination.position() + read);
+                        position += read;
+                    }
+                    return read;
+                }
+                int read = file.read(destination, position);
+                if (read > 0) {
+                    position += read;
+                }
+                return read;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return open;
+            }
+
+            @Override
+            public void close() {
+                // the file is shared between chunks, whoever opened it closes it
+                open = false;
+            }
+        };
+    }
+}
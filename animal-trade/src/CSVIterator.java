@@ -6,6 +6,7 @@ import org.apache.commons.csv.CSVRecord;
 
 import java.io.*;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 import java.util.Map;
 
@@ -15,6 +16,20 @@ public class CSVIterator implements Iterator<Map<String, String>>, AutoCloseable
     private Iterator<CSVRecord> csvRecordIterator;
 
     public CSVIterator(File csvFile, char separator) throws IOException, FileNotFoundException {
+        this(csvFile, separator, StandardCharsets.UTF_8);
+    }
+
+    // a compressed file is read as the CSV it holds, see CompressedInput
+    public CSVIterator(File csvFile, char separator, Charset charset) throws IOException, FileNotFoundException {
+        this(new InputStreamReader(CompressedInput.stream(csvFile.toPath()), charset), separator);
+    }
+
+    // as is a compressed stream, though one in zstd can only be read from a file
+    public CSVIterator(InputStream csv, char separator, Charset charset) throws IOException {
+        this(new InputStreamReader(CompressedInput.stream(csv), charset), separator);
+    }
+
+    private CSVIterator(Reader csv, char separator) throws IOException {
         CSVFormat csvFormat = CSVFormat.newFormat(separator)
                                 .withIgnoreSurroundingSpaces()
                                 .withIgnoreEmptyLines()
@@ -23,7 +38,7 @@ public class CSVIterator implements Iterator<Map<String, String>>, AutoCloseable
                                 .withQuote('\"')
                                 .withNullString(null);
 
-        parser = CSVParser.parse(csvFile, Charset.defaultCharset(), csvFormat);
+        parser = new CSVParser(csv, csvFormat);
         csvRecordIterator = parser.iterator();
 
     }
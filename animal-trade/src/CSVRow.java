@@ -0,0 +1,404 @@
+package grakn.examples.animaltrade;
+
+import java.nio.charset.Charset;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * One record of a CSVRowReader, addressed by column index
+ *
+ * The reader reuses the same CSVRow for every record, so values are only turned into Strings when asked for,
+ * and numbers can be read without making a String at all. Use `snapshot()` to keep a row beyond the next record,
+ * eg. to hand it to another thread
+ *
+ * It is also a read-mostly Map from header to value, so it can go anywhere a CSVIterator line can
+ */
+class CSVRow extends AbstractMap<String, String> {
+
+    private final String[] header;
+    private final Map<String, Integer> columns;
+    private final Charset charset;
+
+    // the unescaped bytes of every field, back to back, and where each field starts and ends in them
+    byte[] data;
+    int[] starts;
+    int[] ends;
+    int fieldCount;
+    // the array a field's bytes are in when it isn't `data`, eg. a TradeTable's dictionary; null until there are any
+    private byte[][] sources;
+    // fields already turned into Strings, or overridden with `set`
+    private String[] values;
+    // fields filled in as numbers, eg. by a TradeTable, only turned into Strings if asked for; null until there are any
+    private double[] numbers;
+    private boolean[] numeric;
+    // the id each field has in a dictionary of its column's values, plus one so 0 is none; null until there are any
+    private int[] ids;
+
+    long number;
+    long offset;
+    long endOffset;
+
+    CSVRow(String[] header, Map<String, Integer> columns, Charset charset) {
+        this.header = header;
+        this.columns = columns;
+        this.charset = charset;
+        this.data = new byte[1024];
+        this.starts = new int[header.length];
+        this.ends = new int[header.length];
+        this.values = new String[header.length];
+    }
+
+    // called by the reader before it fills in the next record
+    void reset() {
+        fieldCount = 0;
+        Arrays.fill(values, null);
+        if (numeric != null) {
+            Arrays.fill(numeric, false);
+        }
+        if (sources != null) {
+            Arrays.fill(sources, null);
+        }
+        if (ids != null) {
+            Arrays.fill(ids, 0);
+        }
+    }
+
+    void ensureFields(int count) {
+        if (count > starts.length) {
+            int length = Math.max(count, starts.length * 2);
+            starts = Arrays.copyOf(starts, length);
+            ends = Arrays.copyOf(ends, length);
+            values = Arrays.copyOf(values, length);
+            if (numeric != null) {
+                numbers = Arrays.copyOf(numbers, length);
+                numeric = Arrays.copyOf(numeric, length);
+            }
+            if (sources != null) {
+                sources = Arrays.copyOf(sources, length);
+            }
+            if (ids != null) {
+                ids = Arrays.copyOf(ids, length);
+            }
+        }
+    }
+
+    private byte[] bytes(int column) {
+        return sources != null && sources[column] != null ? sources[column] : data;
+    }
+
+    int column(String name) {
+        Integer column = columns.get(name);
+        if (column == null) {
+            throw new IllegalArgumentException("No column named " + name + ", columns are " + Arrays.toString(header));
+        }
+        return column;
+    }
+
+    // 1-based number of this record in what its reader has read, counting the header and any empty lines
+    // for a reader of a whole file that's the record number in the file
+    long number() {
+        return number;
+    }
+
+    // byte offset in the file of the start of this record, and just past its end
+    // the start is the end of the previous record, so it includes any empty lines skipped before this one
+    long offset() {
+        return offset;
+    }
+
+    long endOffset() {
+        return endOffset;
+    }
+
+    String[] header() {
+        return header;
+    }
+
+    // null if the record is too short to have the column, like CSVIterator
+    String get(int column) {
+        if (values[column] != null || column >= fieldCount) {
+            return values[column];
+        }
+        if (isNumeric(column)) {
+            double number = numbers[column];
+            // whole numbers as they would be written in the CSV, eg. a year
+            values[column] = number == Math.rint(number) && Math.abs(number) < 0x1.0p53
+                    ? Long.toString((long) number) : Double.toString(number);
+            return values[column];
+        }
+        String value = new String(bytes(column), starts[column], ends[column] - starts[column], charset);
+        values[column] = value;
+        return value;
+    }
+
+    void set(int column, String value) {
+        translate(column, value);
+        if (ids != null) {
+            ids[column] = 0;
+        }
+    }
+
+    /*
+     * As `set`, with a value that follows from the field's own, eg. the description of a code, so the field keeps its
+     * id: the id still picks out one value
+     */
+    void translate(int column, String value) {
+        ensureFields(column + 1);
+        values[column] = value;
+        if (numeric != null) {
+            numeric[column] = false;
+        }
+        if (column >= fieldCount) {
+            // columns between the old end and this one exist, but are empty
+            for (int i = fieldCount; i < column; i++) {
+                starts[i] = 0;
+                ends[i] = 0;
+                if (sources != null) {
+                    sources[i] = null;
+                }
+            }
+            fieldCount = column + 1;
+        }
+    }
+
+    /*
+     * Looks the field up in the dictionary, so `get` hands back the dictionary's String rather than a new one, and
+     * `id` its id. The field keeps its bytes, so this doesn't change its hash
+     */
+    void intern(int column, ValueDictionary dictionary) {
+        if (column >= fieldCount || isNumeric(column)) {
+            return;
+        }
+        int id = dictionary.id(bytes(column), starts[column], ends[column]);
+        values[column] = dictionary.value(id);
+        setId(column, id);
+    }
+
+    private void setId(int column, int id) {
+        if (ids == null) {
+            ids = new int[starts.length];
+        }
+        ids[column] = id + 1;
+    }
+
+    /*
+     * The id of the field in the dictionary of its column, from `intern` or a TradeTable, or -1 if it hasn't got one
+     * Ids are only comparable between rows interned with the same dictionary, or read from the same table
+     */
+    int id(int column) {
+        return ids != null && column < fieldCount ? ids[column] - 1 : -1;
+    }
+
+    int id(String name) {
+        Integer column = columns.get(name);
+        return column == null ? -1 : id(column.intValue());
+    }
+
+    /*
+     * Fills in the next field with `length` bytes of `bytes`, which `value` is already the String of, and `id` the
+     * id of in its column's dictionary, or -1 if it has none
+     * The bytes are referred to rather than copied, so they must not change, as a TradeTable's dictionary doesn't
+     */
+    void addField(byte[] bytes, int start, int length, String value, int id) {
+        ensureFields(fieldCount + 1);
+        if (sources == null) {
+            sources = new byte[starts.length][];
+        }
+        sources[fieldCount] = bytes;
+        starts[fieldCount] = start;
+        ends[fieldCount] = start + length;
+        values[fieldCount] = value;
+        if (id >= 0) {
+            setId(fieldCount, id);
+        }
+        fieldCount++;
+    }
+
+    /*
+     * Fills in the next field as a number, which `getInt` and `getDouble` hand back without any parsing
+     */
+    void addNumber(double number) {
+        ensureFields(fieldCount + 1);
+        if (numeric == null) {
+            numbers = new double[starts.length];
+            numeric = new boolean[starts.length];
+        }
+        starts[fieldCount] = 0;
+        ends[fieldCount] = 0;
+        if (sources != null) {
+            sources[fieldCount] = null;
+        }
+        numbers[fieldCount] = number;
+        numeric[fieldCount] = true;
+        fieldCount++;
+    }
+
+    private boolean isNumeric(int column) {
+        return column < fieldCount && numeric != null && numeric[column];
+    }
+
+    boolean isEmpty(int column) {
+        if (isNumeric(column)) {
+            return false;
+        }
+        if (values[column] != null) {
+            return values[column].isEmpty();
+        }
+        return column >= fieldCount || starts[column] == ends[column];
+    }
+
+    // parsed straight from the bytes, for plain integers such as the year
+    int getInt(int column) {
+        if (isNumeric(column)) {
+            return (int) numbers[column];
+        }
+        if (values[column] != null || column >= fieldCount) {
+            return Integer.parseInt(get(column));
+        }
+        byte[] data = bytes(column);
+        int i = starts[column];
+        int end = ends[column];
+        boolean negative = i < end && data[i] == '-';
+        if (negative || (i < end && data[i] == '+')) {
+            i++;
+        }
+        if (i == end) {
+            throw new NumberFormatException("Not an integer: \"" + get(column) + "\"");
+        }
+        int result = 0;
+        for (; i < end; i++) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9 || result > (Integer.MAX_VALUE - digit) / 10) {
+                // not a plain integer, let the JDK decide what it is
+                return Integer.parseInt(get(column));
+            }
+            result = result * 10 + digit;
+        }
+        return negative ? -result : result;
+    }
+
+    double getDouble(int column) {
+        if (isNumeric(column)) {
+            return numbers[column];
+        }
+        return Double.parseDouble(get(column));
+    }
+
+    /*
+     * FNV-1a of the field's bytes as read, continuing from `hash`, so `set` doesn't change it
+     * Each field is followed by a byte that can't be in UTF-8 text, so moving bytes between fields changes the hash
+     * A field filled in as a number is hashed as the 8 bytes of the number
+     */
+    long hash(int column, long hash) {
+        if (isNumeric(column)) {
+            long bits = Double.doubleToLongBits(numbers[column]);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                hash = (hash ^ ((bits >>> shift) & 0xff)) * 0x100000001b3L;
+            }
+        } else if (column < fieldCount) {
+            byte[] data = bytes(column);
+            for (int i = starts[column]; i < ends[column]; i++) {
+                hash = (hash ^ (data[i] & 0xff)) * 0x100000001b3L;
+            }
+        }
+        return (hash ^ 0xff) * 0x100000001b3L;
+    }
+
+    /*
+     * As `hash`, for a field holding a number, which is hashed as the 8 bytes of its value whether it was read as text
+     * or filled in as a number, so "1.0" and 1 hash alike. A field that is empty or isn't a number is hashed as `hash`
+     * would
+     */
+    long hashNumber(int column, long hash) {
+        double number;
+        if (isNumeric(column)) {
+            number = numbers[column];
+        } else {
+            if (isEmpty(column)) {
+                return hash(column, hash);
+            }
+            try {
+                number = getDouble(column);
+            } catch (NumberFormatException e) {
+                return hash(column, hash);
+            }
+        }
+        // -0.0 and 0.0 are the same quantity
+        long bits = Double.doubleToLongBits(number == 0 ? 0.0 : number);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            hash = (hash ^ ((bits >>> shift) & 0xff)) * 0x100000001b3L;
+        }
+        return (hash ^ 0xff) * 0x100000001b3L;
+    }
+
+    /*
+     * A copy of this record that doesn't change when the reader moves on
+     */
+    CSVRow snapshot() {
+        CSVRow copy = new CSVRow(header, columns, charset);
+        int length = 0;
+        for (int i = 0; i < fieldCount; i++) {
+            if (bytes(i) == data) {
+                length = Math.max(length, ends[i]);
+            }
+        }
+        copy.data = Arrays.copyOf(data, length);
+        if (sources != null) {
+            // what they refer to doesn't change, so the copy can refer to it too
+            copy.sources = Arrays.copyOf(sources, Math.max(fieldCount, header.length));
+        }
+        copy.starts = Arrays.copyOf(starts, Math.max(fieldCount, header.length));
+        copy.ends = Arrays.copyOf(ends, Math.max(fieldCount, header.length));
+        copy.values = Arrays.copyOf(values, Math.max(fieldCount, header.length));
+        if (numeric != null) {
+            copy.numbers = Arrays.copyOf(numbers, Math.max(fieldCount, header.length));
+            copy.numeric = Arrays.copyOf(numeric, Math.max(fieldCount, header.length));
+        }
+        if (ids != null) {
+            copy.ids = Arrays.copyOf(ids, Math.max(fieldCount, header.length));
+        }
+        copy.fieldCount = fieldCount;
+        copy.number = number;
+        copy.offset = offset;
+        copy.endOffset = endOffset;
+        return copy;
+    }
+
+    @Override
+    public String get(Object name) {
+        Integer column = columns.get(name);
+        return column == null ? null : get(column.intValue());
+    }
+
+    @Override
+    public String put(String name, String value) {
+        int column = column(name);
+        String previous = get(column);
+        set(column, value);
+        return previous;
+    }
+
+    @Override
+    public boolean containsKey(Object name) {
+        return columns.containsKey(name);
+    }
+
+    @Override
+    public int size() {
+        return header.length;
+    }
+
+    // only for printing and the like, this allocates
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        Map<String, String> entries = new LinkedHashMap<>();
+        for (int i = 0; i < header.length; i++) {
+            entries.put(header[i], get(i));
+        }
+        return Collections.unmodifiableMap(entries).entrySet();
+    }
+}
@@ -0,0 +1,293 @@
+package grakn.examples.animaltrade;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Streaming CSV reader for the large trade data, an alternative to CSVIterator that doesn't build a Map per row
+ *
+ * Understands the same format as CSVIterator: first record is the header, `"` quotes, `\` escapes,
+ * surrounding spaces and empty lines are ignored. It works on raw bytes, so the charset must encode the
+ * separator, quote, escape and line breaks as single ASCII bytes -- true of UTF-8 and the ISO-8859 family
+ *
+ * Headers are resolved to column indexes once; every record is then read into the same CSVRow
+ */
+class CSVRowReader implements AutoCloseable {
+
+    static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+    private static final byte QUOTE = '"';
+    private static final byte ESCAPE = '\\';
+    private static final int END_OF_INPUT = -1;
+
+    private final ReadableByteChannel channel;
+    private final byte separator;
+    private final ByteBuffer buffer;
+    private final byte[] bytes;
+    private int position;
+    private int limit;
+    // file offset of bytes[0]
+    private long bufferOffset;
+    private long rowNumber;
+    // end of the last non-space byte of the unquoted field just read
+    private int unquotedEnd;
+    private final CSVRow row;
+
+    // a compressed file is read as the CSV it holds, see CompressedInput
+    static CSVRowReader open(Path csvFile, char separator, Charset charset) throws IOException {
+        return new CSVRowReader(CompressedInput.open(csvFile), separator, charset, DEFAULT_BUFFER_SIZE);
+    }
+
+    CSVRowReader(ReadableByteChannel channel, char separator, Charset charset, int bufferSize) throws IOException {
+        this(channel, 0, null, separator, charset, bufferSize);
+    }
+
+    /*
+     * Reads records from a channel positioned `startOffset` bytes into a CSV file
+     * If `header` is null the first record is read as the header, otherwise every record is data
+     */
+    CSVRowReader(ReadableByteChannel channel, long startOffset, String[] header, char separator, Charset charset,
+                 int bufferSize) throws IOException {
+        checkAsciiCompatible(charset, separator);
+        this.channel = channel;
+        this.separator = (byte) separator;
+        this.bytes = new byte[bufferSize];
+        this.buffer = ByteBuffer.wrap(bytes);
+        this.position = 0;
+        this.limit = 0;
+        this.bufferOffset = startOffset;
+        this.rowNumber = 0;
+
+        if (header == null) {
+            header = readHeader(charset);
+        }
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < header.length; i++) {
+            columns.put(header[i], i);
+        }
+        this.row = new CSVRow(header, columns, charset);
+    }
+
+    private String[] readHeader(Charset charset) throws IOException {
+        // read the header with a throwaway row, since we don't know the columns yet
+        CSVRow headerRow = new CSVRow(new String[0], new HashMap<>(), charset);
+        if (!readRecord(headerRow)) {
+            throw new IOException("CSV has no header");
+        }
+        String[] header = new String[headerRow.fieldCount];
+        for (int i = 0; i < header.length; i++) {
+            header[i] = new String(headerRow.data, headerRow.starts[i], headerRow.ends[i] - headerRow.starts[i], charset);
+        }
+        return header;
+    }
+
+    private static void checkAsciiCompatible(Charset charset, char separator) {
+        String structural = "\"\\\r\n" + separator;
+        if (!Arrays.equals(structural.getBytes(charset), structural.getBytes(StandardCharsets.US_ASCII))) {
+            throw new IllegalArgumentException("CSVRowReader needs an ASCII compatible charset, got " + charset);
+        }
+    }
+
+    String[] header() {
+        return row.header();
+    }
+
+    int column(String name) {
+        return row.column(name);
+    }
+
+    // file offset of the next byte to be read, which after the constructor is the start of the first data record
+    long offset() {
+        return bufferOffset + position;
+    }
+
+    /*
+     * Move on to the next record, which is then available from `row()`
+     */
+    boolean next() throws IOException {
+        return readRecord(row);
+    }
+
+    // the current record, overwritten by the next call to `next()`
+    CSVRow row() {
+        return row;
+    }
+
+    private boolean readRecord(CSVRow into) throws IOException {
+        // a record's offset includes any empty lines before it, so consecutive records cover the file without gaps
+        long recordOffset = offset();
+        while (true) {
+            into.reset();
+            int b = peek();
+            if (b == END_OF_INPUT) {
+                return false;
+            }
+            into.offset = recordOffset;
+            rowNumber++;
+            int length = 0;
+            boolean quoted = false;
+            boolean endOfRecord = false;
+            while (!endOfRecord) {
+                into.ensureFields(into.fieldCount + 1);
+                b = skipSpaces();
+                int start = length;
+                int end;
+                if (b == QUOTE) {
+                    read();
+                    quoted = true;
+                    length = readQuoted(into, length);
+                    end = length;
+                    b = skipSpaces();
+                    if (b != separator && b != '\r' && b != '\n' && b != END_OF_INPUT) {
+                        throw new IOException("Unexpected character after closing quote in row " + rowNumber);
+                    }
+                } else {
+                    length = readUnquoted(into, length);
+                    end = unquotedEnd;
+                    b = peek();
+                }
+                into.starts[into.fieldCount] = start;
+                into.ends[into.fieldCount] = end;
+                into.fieldCount++;
+
+                read();
+                if (b == '\r' && peek() == '\n') {
+                    read();
+                }
+                endOfRecord = b != separator;
+            }
+            into.endOffset = offset();
+            into.number = rowNumber;
+            boolean emptyLine = into.fieldCount == 1 && into.starts[0] == into.ends[0] && !quoted;
+            if (!emptyLine) {
+                return true;
+            }
+            // an empty line isn't a record, but still counts as a row of the file
+        }
+    }
+
+    private int readUnquoted(CSVRow into, int length) throws IOException {
+        int end = length;
+        while (true) {
+            int b = peek();
+            if (b == separator || b == '\r' || b == '\n' || b == END_OF_INPUT) {
+                break;
+            }
+            read();
+            if (b == ESCAPE) {
+                length = appendEscaped(into, length);
+                end = length;
+            } else {
+                length = append(into, length, (byte) b);
+                if (b != ' ' && b != '\t') {
+                    end = length;
+                }
+            }
+        }
+        unquotedEnd = end;
+        return length;
+    }
+
+    private int readQuoted(CSVRow into, int length) throws IOException {
+        while (true) {
+            int b = read();
+            if (b == END_OF_INPUT) {
+                throw new IOException("Unterminated quoted field in row " + rowNumber);
+            } else if (b == ESCAPE) {
+                length = appendEscaped(into, length);
+                continue;
+            } else if (b == QUOTE) {
+                if (peek() != QUOTE) {
+                    return length;
+                }
+                // a doubled quote is a literal quote
+                read();
+            }
+            length = append(into, length, (byte) b);
+        }
+    }
+
+    // the byte after an escape, translated the same way commons-csv does for CSVIterator
+    private int appendEscaped(CSVRow into, int length) throws IOException {
+        int b = read();
+        switch (b) {
+            case 'r':
+                return append(into, length, (byte) '\r');
+            case 'n':
+                return append(into, length, (byte) '\n');
+            case 't':
+                return append(into, length, (byte) '\t');
+            case 'b':
+                return append(into, length, (byte) '\b');
+            case 'f':
+                return append(into, length, (byte) '\f');
+            case END_OF_INPUT:
+                throw new IOException("Escape at end of input in row " + rowNumber);
+            default:
+                if (b == QUOTE || b == ESCAPE || b == separator || b == '\r' || b == '\n' || b == '\t' || b == '\b' || b == '\f') {
+                    return append(into, length, (byte) b);
+                }
+                // not something that needs escaping, so the backslash was meant literally
+                return append(into, append(into, length, ESCAPE), (byte) b);
+        }
+    }
+
+    private static int append(CSVRow into, int length, byte b) {
+        if (length == into.data.length) {
+            into.data = Arrays.copyOf(into.data, length * 2);
+        }
+        into.data[length] = b;
+        return length + 1;
+    }
+
+    private int skipSpaces() throws IOException {
+        int b = peek();
+        while (b == ' ' || b == '\t') {
+            read();
+            b = peek();
+        }
+        return b;
+    }
+
+    private int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return END_OF_INPUT;
+        }
+        return bytes[position] & 0xff;
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return END_OF_INPUT;
+        }
+        return bytes[position++] & 0xff;
+    }
+
+    private boolean fill() throws IOException {
+        bufferOffset += limit;
+        position = 0;
+        limit = 0;
+        buffer.clear();
+        int read;
+        do {
+            read = channel.read(buffer);
+        } while (read == 0);
+        if (read < 0) {
+            return false;
+        }
+        limit = buffer.position();
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,547 @@
+package grakn.examples.animaltrade;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/*
+ * Durable record of how far a load of the trade CSV has got, so an interrupted load can carry on where it stopped
+ *
+ * Rows are parsed by several readers and committed by several workers, so they don't commit in file order.
+ * Instead of a single offset the journal keeps the byte ranges of the file whose rows have all been committed, or
+ * skipped: rejected, or unchanged since a previous load in a delta load. Skipped rows are journaled in bulk, and
+ * always before any batch committed after them, so the ranges stay few: one run per chunk being read. The committed
+ * offset is where the first of those runs ends.
+ * Each batch is appended as a line and synced before the worker moves on; every so often the file is rewritten as
+ * a snapshot so it doesn't grow with the data. For a compressed CSV the ranges are of the CSV as decompressed, while
+ * the size recorded is of the compressed file
+ *
+ *   source <file size> <file path>
+ *   split <keyspace split>                             how rows are assigned to keyspaces, which must not change
+ *   load <load id>                                     what this load tags its batches with, kept when it is resumed
+ *   dimensions <keyspace>                              countries and taxonomy are loaded into the keyspace
+ *   pending <keyspace> <batch id> <rows> <ranges>      a batch about to be committed, ranges as start-end,start-end
+ *   batch <keyspace> <batch id> <rows> <ranges>        a committed batch
+ *   aborted <keyspace> <batch id>                      a pending batch that failed to commit, and is retried as others
+ *   skipped <rows> <rejected> <ranges>                 rows that won't be loaded, of which <rejected> were rejected
+ *   snapshot <keyspace> <last batch id>                in a rewritten journal, in place of the batches...
+ *   rejected <rows>                                    ...how many skipped rows were rejected...
+ *   covered <rows> <ranges>                            ...and the ranges they all covered, <rows> being those committed
+ *
+ * A batch is journaled as pending before its transaction commits, and as committed after. The transaction also inserts
+ * a tag, `load-batch`, naming the batch, so a crash between the commit and the journal can't go unnoticed: on resume a
+ * batch still pending is looked for by its tag in its keyspace, and only loaded again if it isn't there. A load that
+ * finishes has no batch pending, so it deletes the tags from the keyspaces again
+ */
+class CheckpointJournal implements AutoCloseable {
+
+    private static final int BATCHES_PER_SNAPSHOT = 10_000;
+    private static final int SKIPPED_PER_LINE = 10_000;
+
+    // a batch journaled as pending, which may or may not have been committed
+    private static class Pending {
+        final int keyspace;
+        final long batchId;
+        final long rows;
+        final String ranges;
+
+        Pending(int keyspace, long batchId, long rows, String ranges) {
+            this.keyspace = keyspace;
+            this.batchId = batchId;
+            this.rows = rows;
+            this.ranges = ranges;
+        }
+    }
+
+    private final Path path;
+    private final Path source;
+    private final long sourceSize;
+    private final List<String> keyspaces;
+    private final String split;
+    private final long[] batchIds;
+    private final boolean[] dimensionsLoaded;
+    private String loadId = Long.toHexString(new SecureRandom().nextLong());
+    // batches of this run between pending and committed or aborted, by the identity of their rows
+    private final Map<List<CSVRow>, Pending> inFlight = new IdentityHashMap<>();
+    // batches an earlier run left pending, by keyspace and batch id, until they are settled
+    private final Map<String, Pending> unsettled = new TreeMap<>();
+    // start to end of every fully committed byte range, merged so no two touch
+    private final TreeMap<Long, Long> covered = new TreeMap<>();
+    private long committedRows = 0;
+    // skipped rows not yet journaled, merged as `covered` is, and how many of them there are and were rejected
+    private final TreeMap<Long, Long> skipped = new TreeMap<>();
+    private long skippedRows = 0;
+    private long skippedRejected = 0;
+    private long rejectedRows = 0;
+    private int batchesSinceSnapshot = 0;
+    private FileChannel journal;
+
+    private CheckpointJournal(Path path, Path source, KeyspaceSplit split) throws IOException {
+        this.path = path;
+        this.source = source;
+        this.sourceSize = Files.size(source);
+        this.keyspaces = split.keyspaces();
+        this.split = split.toString();
+        this.batchIds = new long[keyspaces.size()];
+        this.dimensionsLoaded = new boolean[keyspaces.size()];
+    }
+
+    /*
+     * A journal for a load from scratch, replacing any left by an earlier load
+     */
+    static CheckpointJournal start(Path path, Path source, KeyspaceSplit split) throws IOException {
+        CheckpointJournal checkpoint = new CheckpointJournal(path, source, split);
+        checkpoint.snapshot();
+        return checkpoint;
+    }
+
+    /*
+     * Picks up the journal of an earlier load of the same file, split the same way
+     */
+    static CheckpointJournal resume(Path path, Path source, KeyspaceSplit split) throws IOException {
+        if (!Files.exists(path)) {
+            throw new IOException("No checkpoint to resume from at " + path);
+        }
+        CheckpointJournal checkpoint = new CheckpointJournal(path, source, split);
+        checkpoint.replay(Files.readAllLines(path, StandardCharsets.UTF_8));
+        checkpoint.snapshot();
+        return checkpoint;
+    }
+
+    private void replay(List<String> lines) throws IOException {
+        for (int i = 0; i < lines.size(); i++) {
+            String[] fields = lines.get(i).split(" ", 5);
+            try {
+                switch (fields[0]) {
+                    case "source":
+                        long size = Long.parseLong(fields[1]);
+                        if (size != sourceSize) {
+                            throw new IOException("Checkpoint at " + path + " is for " + fields[2] + " of " + size
+                                    + " bytes, but " + source + " is " + sourceSize + " bytes");
+                        }
+                        break;
+                    case "split":
+                        String journaled = lines.get(i).substring("split ".length());
+                        if (!journaled.equals(split)) {
+                            throw new IOException("Checkpoint at " + path + " is for a load split as " + journaled
+                                    + ", not " + split);
+                        }
+                        break;
+                    case "load":
+                        loadId = fields[1];
+                        break;
+                    case "dimensions":
+                        dimensionsLoaded[keyspace(fields[1])] = true;
+                        break;
+                    case "pending": {
+                        // parsed in full before any of it is applied, in case the line was cut short
+                        int keyspace = keyspace(fields[1]);
+                        long batchId = Long.parseLong(fields[2]);
+                        long rows = Long.parseLong(fields[3]);
+                        parseRanges(fields[4]);
+                        // ids are handed out as batches are started, but batches finish in any order
+                        batchIds[keyspace] = Math.max(batchIds[keyspace], batchId);
+                        unsettled.put(key(keyspace, batchId), new Pending(keyspace, batchId, rows, fields[4]));
+                        break;
+                    }
+                    case "batch": {
+                        int keyspace = keyspace(fields[1]);
+                        long batchId = Long.parseLong(fields[2]);
+                        long rows = Long.parseLong(fields[3]);
+                        List<long[]> ranges = parseRanges(fields[4]);
+                        batchIds[keyspace] = Math.max(batchIds[keyspace], batchId);
+                        unsettled.remove(key(keyspace, batchId));
+                        committedRows += rows;
+                        ranges.forEach(range -> addRange(covered, range[0], range[1]));
+                        break;
+                    }
+                    case "aborted": {
+                        int keyspace = keyspace(fields[1]);
+                        unsettled.remove(key(keyspace, Long.parseLong(fields[2])));
+                        break;
+                    }
+                    case "skipped": {
+                        // checked, though only the rejected rows among them are counted
+                        Long.parseLong(fields[1]);
+                        long rejected = Long.parseLong(fields[2]);
+                        List<long[]> ranges = parseRanges(fields[3]);
+                        rejectedRows += rejected;
+                        ranges.forEach(range -> addRange(covered, range[0], range[1]));
+                        break;
+                    }
+                    case "snapshot":
+                        batchIds[keyspace(fields[1])] = Long.parseLong(fields[2]);
+                        break;
+                    case "rejected":
+                        rejectedRows += Long.parseLong(fields[1]);
+                        break;
+                    case "covered": {
+                        long rows = Long.parseLong(fields[1]);
+                        List<long[]> ranges = fields.length > 2 ? parseRanges(fields[2]) : new ArrayList<>();
+                        committedRows += rows;
+                        ranges.forEach(range -> addRange(covered, range[0], range[1]));
+                        break;
+                    }
+                    default:
+                        throw new IllegalArgumentException("unknown entry " + fields[0]);
+                }
+            } catch (RuntimeException e) {
+                if (i == lines.size() - 1) {
+                    // a line cut short by a crash while it was written. A batch isn't committed before its pending
+                    // line is whole, and one whose batch line was cut short is still pending, so is settled
+                    System.out.println("Ignoring incomplete last checkpoint entry: " + lines.get(i));
+                } else {
+                    throw new IOException("Corrupt checkpoint at " + path + ", line " + (i + 1) + ": " + lines.get(i), e);
+                }
+            }
+        }
+    }
+
+    private int keyspace(String name) {
+        int index = keyspaces.indexOf(name);
+        if (index < 0) {
+            throw new IllegalArgumentException("checkpoint is for a different keyspace, " + name);
+        }
+        return index;
+    }
+
+    private static String key(int keyspace, long batchId) {
+        return keyspace + " " + batchId;
+    }
+
+    private static List<long[]> parseRanges(String ranges) {
+        List<long[]> parsed = new ArrayList<>();
+        for (String range : ranges.split(",")) {
+            int split = range.indexOf('-');
+            if (split < 0) {
+                throw new IllegalArgumentException("not a range, " + range);
+            }
+            parsed.add(new long[]{Long.parseLong(range.substring(0, split)), Long.parseLong(range.substring(split + 1))});
+        }
+        return parsed;
+    }
+
+    private static void addRange(TreeMap<Long, Long> covered, long start, long end) {
+        Map.Entry<Long, Long> before = covered.floorEntry(start);
+        if (before != null && before.getValue() >= start) {
+            start = before.getKey();
+            end = Math.max(end, before.getValue());
+        }
+        for (Map.Entry<Long, Long> after = covered.ceilingEntry(start);
+             after != null && after.getKey() <= end;
+             after = covered.ceilingEntry(start)) {
+            end = Math.max(end, after.getValue());
+            covered.remove(after.getKey());
+        }
+        covered.put(start, end);
+    }
+
+    synchronized boolean dimensionsLoaded(int keyspace) {
+        return dimensionsLoaded[keyspace];
+    }
+
+    /*
+     * Marks the countries and taxonomy as loaded into a keyspace, so a resumed load goes straight to the facts
+     */
+    synchronized void markDimensionsLoaded(int keyspace) {
+        dimensionsLoaded[keyspace] = true;
+        append("dimensions " + keyspaces.get(keyspace));
+    }
+
+    /*
+     * Records a batch of rows as about to be committed to a keyspace, returning its tag once that is on disk
+     * The tag is to be inserted in the same transaction as the rows, for `settle` to look for
+     */
+    synchronized String pending(int keyspace, List<CSVRow> rows) {
+        Pending pending = new Pending(keyspace, ++batchIds[keyspace], rows.size(), ranges(rows));
+        inFlight.put(rows, pending);
+        append(pendingLine(pending));
+        return tag(pending);
+    }
+
+    /*
+     * The tag of a batch of rows journaled as pending and not yet committed or aborted, or null if there isn't one
+     */
+    synchronized String tag(List<CSVRow> rows) {
+        Pending pending = inFlight.get(rows);
+        return pending != null ? tag(pending) : null;
+    }
+
+    private String tag(Pending pending) {
+        return loadId + "-" + keyspaces.get(pending.keyspace) + "-" + pending.batchId;
+    }
+
+    /*
+     * Records that the transaction holding a pending batch failed to commit; its rows are retried as new batches
+     */
+    synchronized void aborted(int keyspace, List<CSVRow> rows) {
+        Pending pending = inFlight.remove(rows);
+        if (pending != null) {
+            append("aborted " + keyspaces.get(keyspace) + " " + pending.batchId);
+        }
+    }
+
+    /*
+     * Records a batch of rows as committed to a keyspace, returning once that is on disk
+     */
+    synchronized void committed(int keyspace, List<CSVRow> rows) {
+        Pending pending = inFlight.remove(rows);
+        if (pending == null) {
+            pending = new Pending(keyspace, ++batchIds[keyspace], rows.size(), ranges(rows));
+        }
+        commit(pending);
+    }
+
+    /*
+     * Finds out whether each batch an earlier run of this load left pending in a keyspace was committed, by asking
+     * `isCommitted` for its tag, and records it as committed or aborted. Returns how many were committed
+     */
+    synchronized int settle(int keyspace, Predicate<String> isCommitted) {
+        flushSkipped();
+        int committed = 0;
+        for (Iterator<Pending> batches = unsettled.values().iterator(); batches.hasNext(); ) {
+            Pending pending = batches.next();
+            if (pending.keyspace != keyspace) {
+                continue;
+            }
+            batches.remove();
+            if (isCommitted.test(tag(pending))) {
+                commit(pending);
+                committed++;
+            } else {
+                append("aborted " + keyspaces.get(keyspace) + " " + pending.batchId);
+            }
+        }
+        return committed;
+    }
+
+    synchronized boolean hasUnsettled(int keyspace) {
+        return unsettled.values().stream().anyMatch(pending -> pending.keyspace == keyspace);
+    }
+
+    /*
+     * Records a row as one that won't be loaded, rejected or not, so a resumed load doesn't read it again
+     * It is journaled with others later, but before any batch is journaled as committed
+     */
+    synchronized void skipped(CSVRow row, boolean rejected) {
+        addRange(skipped, row.offset(), row.endOffset());
+        skippedRows++;
+        if (rejected) {
+            skippedRejected++;
+        }
+        if (skippedRows >= SKIPPED_PER_LINE) {
+            flushSkipped();
+        }
+    }
+
+    private void flushSkipped() {
+        String line = takeSkipped();
+        if (line != null) {
+            append(line);
+        }
+    }
+
+    // moves the skipped rows into `covered`, returning the line journaling them, or null if there are none
+    private String takeSkipped() {
+        if (skippedRows == 0) {
+            return null;
+        }
+        String line = "skipped " + skippedRows + " " + skippedRejected + " " + format(skipped);
+        skipped.forEach((start, end) -> addRange(covered, start, end));
+        rejectedRows += skippedRejected;
+        skipped.clear();
+        skippedRows = 0;
+        skippedRejected = 0;
+        return line;
+    }
+
+    // the rows' ranges, merged into as few as they allow
+    private static String ranges(List<CSVRow> rows) {
+        TreeMap<Long, Long> ranges = new TreeMap<>();
+        for (CSVRow row : rows) {
+            ranges.put(row.offset(), row.endOffset());
+        }
+        return format(ranges);
+    }
+
+    // start-end,start-end, with ranges that touch joined
+    private static String format(TreeMap<Long, Long> ranges) {
+        StringBuilder line = new StringBuilder();
+        long runStart = -1;
+        long runEnd = -1;
+        for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+            if (range.getKey() != runEnd) {
+                if (runStart >= 0) {
+                    line.append(runStart).append('-').append(runEnd).append(',');
+                }
+                runStart = range.getKey();
+            }
+            runEnd = range.getValue();
+        }
+        return line.append(runStart).append('-').append(runEnd).toString();
+    }
+
+    private String pendingLine(Pending pending) {
+        return "pending " + keyspaces.get(pending.keyspace) + " " + pending.batchId + " " + pending.rows + " "
+                + pending.ranges;
+    }
+
+    private void commit(Pending pending) {
+        // a batch's rows may have been read after rows that were skipped, which a resume must know about as well
+        flushSkipped();
+        parseRanges(pending.ranges).forEach(range -> addRange(covered, range[0], range[1]));
+        committedRows += pending.rows;
+        String line = "batch " + keyspaces.get(pending.keyspace) + " " + pending.batchId + " " + pending.rows + " "
+                + pending.ranges;
+
+        if (++batchesSinceSnapshot >= BATCHES_PER_SNAPSHOT) {
+            try {
+                snapshot();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to write checkpoint " + path, e);
+            }
+        } else {
+            append(line);
+        }
+    }
+
+    synchronized long committedRows() {
+        return committedRows;
+    }
+
+    // how many rows the journaled ranges hold that were rejected rather than committed
+    synchronized long rejectedRows() {
+        return rejectedRows;
+    }
+
+    // whether any of the data has been committed or skipped
+    synchronized boolean hasCovered() {
+        return !covered.isEmpty();
+    }
+
+    /*
+     * The offset up to which every row from `dataStart` has been committed
+     */
+    synchronized long committedOffset(long dataStart) {
+        Map.Entry<Long, Long> first = covered.floorEntry(dataStart);
+        return first != null && first.getValue() >= dataStart ? first.getValue() : dataStart;
+    }
+
+    /*
+     * The parts of `data` still to be loaded: everything not yet committed or skipped, each part starting and ending on
+     * a record
+     */
+    synchronized List<CSVChunkSplitter.Chunk> remaining(CSVChunkSplitter.Chunk data) {
+        List<CSVChunkSplitter.Chunk> remaining = new ArrayList<>();
+        long position = data.start;
+        for (Map.Entry<Long, Long> range : covered.entrySet()) {
+            if (range.getKey() > position) {
+                remaining.add(new CSVChunkSplitter.Chunk(position, Math.min(range.getKey(), data.end)));
+            }
+            position = Math.max(position, range.getValue());
+            if (position >= data.end) {
+                break;
+            }
+        }
+        if (position < data.end) {
+            remaining.add(new CSVChunkSplitter.Chunk(position, data.end));
+        }
+        return remaining;
+    }
+
+    /*
+     * The parts of `data` whose rows have all been committed or skipped, the opposite of `remaining`
+     */
+    synchronized List<CSVChunkSplitter.Chunk> covered(CSVChunkSplitter.Chunk data) {
+        List<CSVChunkSplitter.Chunk> parts = new ArrayList<>();
+        for (Map.Entry<Long, Long> range : covered.entrySet()) {
+            long start = Math.max(range.getKey(), data.start);
+            long end = Math.min(range.getValue(), data.end);
+            if (start < end) {
+                parts.add(new CSVChunkSplitter.Chunk(start, end));
+            }
+        }
+        return parts;
+    }
+
+    private void append(String line) {
+        try {
+            ByteBuffer bytes = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) {
+                journal.write(bytes);
+            }
+            journal.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write checkpoint " + path, e);
+        }
+    }
+
+    /*
+     * Rewrites the journal as just the current state, swapping it in with a rename so there is always a whole one
+     */
+    private void snapshot() throws IOException {
+        // written out as part of `covered`
+        takeSkipped();
+        StringBuilder snapshot = new StringBuilder();
+        snapshot.append("source ").append(sourceSize).append(' ').append(source).append('\n');
+        snapshot.append("split ").append(split).append('\n');
+        snapshot.append("load ").append(loadId).append('\n');
+        for (int i = 0; i < keyspaces.size(); i++) {
+            if (dimensionsLoaded[i]) {
+                snapshot.append("dimensions ").append(keyspaces.get(i)).append('\n');
+            }
+            snapshot.append("snapshot ").append(keyspaces.get(i)).append(' ').append(batchIds[i]).append('\n');
+        }
+        snapshot.append("rejected ").append(rejectedRows).append('\n');
+        snapshot.append("covered ").append(committedRows);
+        String separator = " ";
+        for (Map.Entry<Long, Long> range : covered.entrySet()) {
+            snapshot.append(separator).append(range.getKey()).append('-').append(range.getValue());
+            separator = ",";
+        }
+        snapshot.append('\n');
+        // those still to be settled, and those in flight, which are settled when their transactions finish
+        for (Pending pending : unsettled.values()) {
+            snapshot.append(pendingLine(pending)).append('\n');
+        }
+        for (Pending pending : inFlight.values()) {
+            snapshot.append(pendingLine(pending)).append('\n');
+        }
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = ByteBuffer.wrap(snapshot.toString().getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) {
+                out.write(bytes);
+            }
+            out.force(true);
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        batchesSinceSnapshot = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        snapshot();
+        journal.close();
+    }
+}
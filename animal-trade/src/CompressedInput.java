@@ -0,0 +1,453 @@
+package grakn.examples.animaltrade;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/*
+ * Trade data kept compressed, read as the CSV it holds without decompressing it to disk first
+ *
+ * The format is told from the first bytes of the file, whatever it is called, and a file that isn't compressed is read
+ * as it is. Decompression runs ahead of the reader on threads of its own, into a ring of buffers: the reader parses one
+ * buffer while the ones after it are filled, and decompression waits once every buffer is full
+ *
+ * BGZF, as written by `bgzip`, is gzip made of independent members of at most 64KB, each giving its own length, so the
+ * members are found without inflating them and groups of them are inflated in parallel. Any other gzip, eg. from
+ * `gzip` or `pigz`, is one deflate stream that can only be inflated from its start, on one thread. zstd is decompressed
+ * by the `zstd` command, which must be on the PATH, as there is no zstd codec among the loader's dependencies
+ */
+class CompressedInput {
+
+    enum Format { PLAIN, GZIP, BGZF, ZSTD }
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    // the most a BGZF block may inflate to
+    private static final int MAX_BLOCK_SIZE = 1 << 16;
+    private static final int READ_SIZE = 1 << 16;
+    // a single stream can only be decompressed so far ahead of the reader before it is waiting on it anyway
+    private static final int STREAM_BUFFERS = 4;
+    private static final int GZIP_HEADER_BYTES = 12;
+    private static final int GZIP_TRAILER_BYTES = 8;
+    private static final int FEXTRA = 4;
+
+    /*
+     * How the file is compressed, from its first bytes
+     */
+    static Format format(Path file) throws IOException {
+        // as much of the file as the header of a BGZF member can take up, or all of it if it's shorter
+        byte[] start = new byte[GZIP_HEADER_BYTES + 0xffff];
+        int read;
+        try (InputStream in = Files.newInputStream(file)) {
+            read = readStart(in, start);
+        }
+        if (isGzip(start, read)) {
+            try (DataInputStream member = new DataInputStream(new ByteArrayInputStream(start, 0, read))) {
+                return blockSize(member, file, false) > 0 ? Format.BGZF : Format.GZIP;
+            } catch (EOFException e) {
+                // too short to hold the header of a BGZF member, so if it's gzip at all it's plain gzip, and
+                // GZIPInputStream says whether it is once it's read
+                return Format.GZIP;
+            }
+        }
+        return isZstd(start, read) ? Format.ZSTD : Format.PLAIN;
+    }
+
+    // fills `start` from `in`, unless it ends first, and gives how much of it was filled
+    private static int readStart(InputStream in, byte[] start) throws IOException {
+        int read = 0;
+        int n;
+        while (read < start.length && (n = in.read(start, read, start.length - read)) >= 0) {
+            read += n;
+        }
+        return read;
+    }
+
+    private static boolean isGzip(byte[] start, int read) {
+        return read >= 2 && (start[0] & 0xff) == 0x1f && (start[1] & 0xff) == 0x8b;
+    }
+
+    private static boolean isZstd(byte[] start, int read) {
+        return read >= 4 && littleEndianInt(start, 0) == 0xfd2fb528;
+    }
+
+    static boolean isCompressed(Path file) throws IOException {
+        return format(file) != Format.PLAIN;
+    }
+
+    /*
+     * The decompressed contents of the file, with a BGZF file inflated on a thread per core
+     */
+    static ReadableByteChannel open(Path file) throws IOException {
+        return open(file, Runtime.getRuntime().availableProcessors());
+    }
+
+    /*
+     * The decompressed contents of the file, with a BGZF file inflated on up to `threads` threads
+     */
+    static ReadableByteChannel open(Path file, int threads) throws IOException {
+        switch (format(file)) {
+            case GZIP:
+                return new Ring(file, STREAM_BUFFERS, ring -> {
+                    try (InputStream in = new GZIPInputStream(Files.newInputStream(file), READ_SIZE)) {
+                        fill(ring, in);
+                    }
+                });
+            case BGZF:
+                return new Ring(file, 2 * threads + 2, ring -> inflateBlocks(ring, file, threads));
+            case ZSTD:
+                return new Ring(file, STREAM_BUFFERS, ring -> decompressZstd(ring, file));
+            default:
+                return FileChannel.open(file, StandardOpenOption.READ);
+        }
+    }
+
+    static InputStream stream(Path file) throws IOException {
+        return Channels.newInputStream(open(file));
+    }
+
+    /*
+     * The decompressed contents of `in`, its format told from its first bytes as a file's is. A stream can only be
+     * read from its start, so BGZF is inflated on the reader's thread like any other gzip, and zstd, which needs a
+     * file to hand the `zstd` command, can't be read at all
+     */
+    static InputStream stream(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, READ_SIZE);
+        byte[] start = new byte[4];
+        buffered.mark(start.length);
+        int read = readStart(buffered, start);
+        buffered.reset();
+        if (isGzip(start, read)) {
+            // reads every member, so a BGZF stream as well
+            return new GZIPInputStream(buffered, READ_SIZE);
+        }
+        if (isZstd(start, read)) {
+            throw new IOException("A zstd compressed stream can only be read from a file;"
+                    + " otherwise recompress it with bgzip");
+        }
+        return buffered;
+    }
+
+    private interface Decompressor {
+        // fills the ring with the file's contents, in order
+        void run(Ring ring) throws IOException, InterruptedException;
+    }
+
+    private static class Filled {
+        static final Filled END = new Filled(null, 0);
+
+        final byte[] bytes;
+        final int length;
+
+        Filled(byte[] bytes, int length) {
+            this.bytes = bytes;
+            this.length = length;
+        }
+    }
+
+    /*
+     * A fixed number of buffers going round between the decompressor, which fills them in order, and the reader,
+     * which gives each back once it has read it. A buffer is filled in a future, so several can be filled at once
+     */
+    private static class Ring implements ReadableByteChannel {
+
+        private final Path file;
+        private final BlockingQueue<byte[]> empty;
+        private final BlockingQueue<Future<Filled>> filled;
+        private final Thread decompressor;
+        private Filled current;
+        private int position;
+        private boolean ended;
+        private boolean open = true;
+
+        Ring(Path file, int buffers, Decompressor decompressor) {
+            this.file = file;
+            this.empty = new ArrayBlockingQueue<>(buffers);
+            this.filled = new ArrayBlockingQueue<>(buffers + 1);
+            for (int i = 0; i < buffers; i++) {
+                empty.add(new byte[BUFFER_SIZE]);
+            }
+            this.decompressor = new Thread(() -> {
+                CompletableFuture<Filled> last = new CompletableFuture<>();
+                try {
+                    decompressor.run(this);
+                    last.complete(Filled.END);
+                } catch (InterruptedException e) {
+                    // closed by the reader, who isn't waiting for anything more
+                    return;
+                } catch (IOException | RuntimeException e) {
+                    last.completeExceptionally(e);
+                }
+                try {
+                    filled.put(last);
+                } catch (InterruptedException e) {
+                    // as above
+                }
+            }, "decompress-" + file.getFileName());
+            this.decompressor.setDaemon(true);
+            this.decompressor.start();
+        }
+
+        // an empty buffer, waiting for the reader to give one back if there is none
+        byte[] take() throws InterruptedException {
+            return empty.take();
+        }
+
+        void giveBack(byte[] buffer) {
+            empty.add(buffer);
+        }
+
+        // the next buffer in order, filled or to be filled by the future
+        void put(Future<Filled> next) throws InterruptedException {
+            filled.put(next);
+        }
+
+        @Override
+        public int read(ByteBuffer destination) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            while (current == null || position == current.length) {
+                if (ended) {
+                    return -1;
+                }
+                if (current != null) {
+                    empty.add(current.bytes);
+                    current = null;
+                }
+                Filled next;
+                try {
+                    next = filled.take().get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while decompressing " + file);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new IOException("Failed to decompress " + file, e.getCause());
+                }
+                if (next == Filled.END) {
+                    ended = true;
+                    return -1;
+                }
+                current = next;
+                position = 0;
+            }
+            int length = Math.min(destination.remaining(), current.length - position);
+            destination.put(current.bytes, position, length);
+            position += length;
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+            decompressor.interrupt();
+        }
+    }
+
+    // a stream decompressed by whatever reads it, a buffer at a time
+    private static void fill(Ring ring, InputStream in) throws IOException, InterruptedException {
+        while (true) {
+            byte[] buffer = ring.take();
+            int length = 0;
+            int read = 0;
+            while (length < buffer.length && (read = in.read(buffer, length, buffer.length - length)) >= 0) {
+                length += read;
+            }
+            if (length > 0) {
+                ring.put(CompletableFuture.completedFuture(new Filled(buffer, length)));
+            } else {
+                ring.giveBack(buffer);
+            }
+            if (read < 0) {
+                return;
+            }
+        }
+    }
+
+    private static void decompressZstd(Ring ring, Path file) throws IOException, InterruptedException {
+        Process zstd;
+        try {
+            zstd = new ProcessBuilder("zstd", "-dcq", "--", file.toString())
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+        } catch (IOException e) {
+            throw new IOException(file + " is zstd compressed, which needs the zstd command on the PATH;"
+                    + " otherwise recompress it with bgzip", e);
+        }
+        try {
+            try (InputStream in = zstd.getInputStream()) {
+                fill(ring, in);
+            }
+            int exit = zstd.waitFor();
+            if (exit != 0) {
+                throw new IOException("zstd failed to decompress " + file + ", exit code " + exit);
+            }
+        } finally {
+            zstd.destroy();
+        }
+    }
+
+    /*
+     * Reads the members in order, without inflating them, and hands out as many as fit in a buffer at a time to be
+     * inflated in parallel, so the buffers are filled in parallel and read in order
+     */
+    private static void inflateBlocks(Ring ring, Path file, int threads) throws IOException, InterruptedException {
+        ExecutorService inflaters = Executors.newFixedThreadPool(threads);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), READ_SIZE))) {
+            List<byte[]> group = new ArrayList<>();
+            int groupSize = 0;
+            byte[] member;
+            while ((member = nextMember(in, file)) != null) {
+                int size = inflatedSize(member);
+                if (size < 0 || size > MAX_BLOCK_SIZE) {
+                    throw new IOException(file + " has a BGZF block of " + (size & 0xffffffffL)
+                            + " bytes, more than the 64KB allowed");
+                }
+                if (groupSize + size > BUFFER_SIZE) {
+                    submit(ring, inflaters, group);
+                    group = new ArrayList<>();
+                    groupSize = 0;
+                }
+                group.add(member);
+                groupSize += size;
+            }
+            if (!group.isEmpty()) {
+                submit(ring, inflaters, group);
+            }
+        } finally {
+            // whatever happened, the groups handed out are inflated, so the reader isn't left waiting on one of them;
+            // there are no more of them than there are buffers
+            inflaters.shutdown();
+        }
+    }
+
+    private static void submit(Ring ring, ExecutorService inflaters, List<byte[]> group) throws InterruptedException {
+        byte[] buffer = ring.take();
+        ring.put(inflaters.submit(() -> inflate(group, buffer)));
+    }
+
+    private static Filled inflate(List<byte[]> members, byte[] buffer) throws IOException {
+        Inflater inflater = new Inflater(true);
+        CRC32 crc = new CRC32();
+        int length = 0;
+        try {
+            for (byte[] member : members) {
+                int dataStart = GZIP_HEADER_BYTES + unsignedShort(member, 10);
+                int size = inflatedSize(member);
+                inflater.reset();
+                inflater.setInput(member, dataStart, member.length - dataStart - GZIP_TRAILER_BYTES);
+                int inflated = 0;
+                while (inflated < size) {
+                    int read = inflater.inflate(buffer, length + inflated, size - inflated);
+                    if (read == 0) {
+                        throw new IOException("A BGZF block inflates to less than the " + size + " bytes it says it holds");
+                    }
+                    inflated += read;
+                }
+                crc.reset();
+                crc.update(buffer, length, size);
+                if ((int) crc.getValue() != littleEndianInt(member, member.length - GZIP_TRAILER_BYTES)) {
+                    throw new IOException("A BGZF block fails its CRC check");
+                }
+                length += size;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("A BGZF block is corrupt", e);
+        } finally {
+            inflater.end();
+        }
+        return new Filled(buffer, length);
+    }
+
+    // the next member, whole, or null at the end of the file
+    private static byte[] nextMember(DataInputStream in, Path file) throws IOException {
+        in.mark(GZIP_HEADER_BYTES + 0xffff);
+        if (in.read() < 0) {
+            return null;
+        }
+        in.reset();
+        int blockSize = blockSize(in, file, true);
+        in.reset();
+        byte[] member = new byte[blockSize];
+        in.readFully(member);
+        return member;
+    }
+
+    /*
+     * The size of the gzip member at the start of `in` from its BGZF extra field, reading only its header,
+     * or 0 if it has none; if `required`, a member without one is an error
+     */
+    private static int blockSize(DataInputStream in, Path file, boolean required) throws IOException {
+        byte[] header = new byte[GZIP_HEADER_BYTES];
+        in.readFully(header);
+        if ((header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b || header[3] != FEXTRA) {
+            return notBgzf(file, required);
+        }
+        byte[] extra = new byte[unsignedShort(header, 10)];
+        in.readFully(extra);
+        // subfields of an id, a length and that many bytes, of which BGZF's is "BC" and holds the member's size - 1
+        for (int i = 0; i + 4 <= extra.length; i += 4 + unsignedShort(extra, i + 2)) {
+            if (extra[i] == 'B' && extra[i + 1] == 'C' && unsignedShort(extra, i + 2) == 2 && i + 6 <= extra.length) {
+                int blockSize = unsignedShort(extra, i + 4) + 1;
+                if (blockSize < GZIP_HEADER_BYTES + extra.length + GZIP_TRAILER_BYTES) {
+                    throw new IOException(file + " has a BGZF block too short to hold its own header");
+                }
+                return blockSize;
+            }
+        }
+        return notBgzf(file, required);
+    }
+
+    private static int notBgzf(Path file, boolean required) throws IOException {
+        if (required) {
+            // the file started as BGZF, so something else was appended to it
+            throw new IOException(file + " is only partly BGZF, recompress it with bgzip");
+        }
+        return 0;
+    }
+
+    private static int inflatedSize(byte[] member) {
+        return littleEndianInt(member, member.length - 4);
+    }
+
+    private static int unsignedShort(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8;
+    }
+
+    private static int littleEndianInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8
+                | (bytes[offset + 2] & 0xff) << 16 | (bytes[offset + 3] & 0xff) << 24;
+    }
+}
@@ -0,0 +1,76 @@
+package grakn.examples.animaltrade;
+
+import graql.lang.Graql;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static graql.lang.Graql.var;
+
+/*
+ * The concept ids of the countries and species in one keyspace, by ISO-id and by name
+ *
+ * Fetched in one go once the countries and taxonomy are loaded, so a fact insert can match the countries and species
+ * it refers to by id, a direct lookup, rather than having the server find them by attribute value for every row
+ * A country or species missing from the index is matched by value as before
+ *
+ * This is the loader's cache of what a keyspace already holds: the countries and taxonomy are inserted once, in bulk,
+ * before the facts, so there is nothing to check for existence row by row, only ids to look up. The lookups that find
+ * an id and those that don't are counted, for the metrics
+ */
+class ConceptIndex {
+
+    static final ConceptIndex EMPTY = new ConceptIndex(Collections.emptyMap(), Collections.emptyMap());
+
+    private final Map<String, String> countries;
+    private final Map<String, String> species;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private ConceptIndex(Map<String, String> countries, Map<String, String> species) {
+        this.countries = countries;
+        this.species = species;
+    }
+
+    static ConceptIndex fetch(Sink.Session session) {
+        try (Sink.Transaction tx = session.read()) {
+            Map<String, String> countries = tx.conceptIds(
+                    Graql.match(var("c").isa("country").has("ISO-id", var("id"))).get("c", "id"), "id", "c");
+            Map<String, String> species = tx.conceptIds(
+                    Graql.match(var("t").isa("taxonomic-species").has("name", var("id"))).get("t", "id"), "id", "t");
+            return new ConceptIndex(countries, species);
+        }
+    }
+
+    // null when the country isn't known
+    String country(String isoId) {
+        return count(countries.get(isoId));
+    }
+
+    String species(String name) {
+        return count(species.get(name));
+    }
+
+    private String count(String id) {
+        if (id != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return id;
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    @Override
+    public String toString() {
+        return countries.size() + " countries and " + species.size() + " species";
+    }
+}
@@ -1,11 +1,29 @@
 package grakn.examples.animaltrade;
 
+import graql.lang.Graql;
+import graql.lang.query.GraqlGet;
+import graql.lang.query.GraqlInsert;
+import graql.lang.query.GraqlQuery;
+import graql.lang.statement.Statement;
+
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+import static graql.lang.Graql.var;
 
+/*
+ * Queries are built with the Graql builder rather than as strings, so nothing needs parsing per row
+ * Only the values taken from the line change from row to row, and Graql takes care of quoting and escaping them
+ */
 public class DataMigrationQueries {
 
     // Note: these must be in increasing specialization of the single-instance hierarchies!
@@ -26,72 +44,27 @@ public class DataMigrationQueries {
         };
     }
 
-    static MigrationQuery getImportMigrationQuery() {
-        return new MainImportQuery();
+    static MigrationQuery getExchangeMigrationQuery() {
+        return new ExchangeInsertQuery();
     }
 
-    static MigrationQuery getExportMigrationQuery() {
-        return new MainExportQuery();
+    // what the loader keeps in a keyspace for itself, whatever schema it is given
+    static GraqlQuery getLoaderSchema() {
+        return Graql.parse("define batch-id sub attribute, datatype string; load-batch sub entity, has batch-id;");
     }
-}
 
-/*
- * Helper to build query strings
- * provides easy quote-wrapped strings in strings
- */
-class BuildString {
-    StringBuilder sb;
-    public BuildString() {
-        sb = new StringBuilder();
+    // marks a batch of facts as committed, by being committed in the same transaction
+    static GraqlInsert getLoadBatchQuery(String batch) {
+        return Graql.insert(var("b").isa("load-batch").has("batch-id", batch));
     }
-    public void add(Object s) {
-        sb.append(s);
-    }
-    public void addQuoted(String s) {
-        sb.append("\"");
-        sb.append(s);
-        sb.append("\"");
-    }
-    @Override
-    public String toString() {
-        return sb.toString();
-    }
-}
-
 
-class AddRelationshipQuery {
-    public static String getAddRelationshipQuery(String relationship, List<String> roles, List<String> entityConceptIds) {
-
-        BuildString bs = new BuildString();
-        bs.add("match ");
-        String var = "$x";
-        for (String conceptId : entityConceptIds) {
-            bs.add(var);
-            bs.add(conceptId); // compounded variable name to be $xVS121323...
-
-            bs.add(" id ");
-            bs.add(conceptId);
-            bs.add("; ");
-        }
-        bs.add("insert (");
-        Iterator<String> roleIter = roles.iterator();
-        Iterator<String> conceptIdsIter = entityConceptIds.iterator();
-        while (roleIter.hasNext() && conceptIdsIter.hasNext()) {
-            String role = roleIter.next();
-            String conceptId = conceptIdsIter.next();
-            bs.add(role);
-            bs.add(": ");
-            bs.add(var);
-            bs.add(conceptId); // compound variable name as above
-            if (roleIter.hasNext()) {
-                bs.add(", ");
-            }
-        }
-        bs.add(") isa ");
-        bs.add(relationship);
-        bs.add(";");
+    static GraqlGet getLoadBatchExistsQuery(String batch) {
+        return Graql.match(var("b").isa("load-batch").has("batch-id", batch)).get();
+    }
 
-        return bs.toString();
+    // every batch tag in the keyspace, of this load and any before it, once no resume can need them; the types stay
+    static GraqlQuery getLoadBatchCleanupQuery() {
+        return Graql.parse("match $b isa load-batch, has batch-id $t; delete $b, $t;");
     }
 }
 
@@ -106,198 +79,274 @@ class AddRelationshipQuery {
 
 // intended for use with auxiliary CSV with Country - Region mapping
 class CountryInsertQuery extends SingletonInsertMigrationQuery {
-    private String sharedString(Map<String, String> line) {
-        BuildString bs = new BuildString();
-        bs.add("$c isa country, has name ");
-        bs.addQuoted(line.get("Official Name"));
-        bs.add(", has ISO-id ");
-        bs.addQuoted(line.get("ISO"));
+    // DateTimeFormatter is immutable and thread-safe, so one instance does for every row
+    private static final DateTimeFormatter ENTRY_INTO_FORCE_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+
+    private Statement sharedStatement(Map<String, String> line) {
+        Statement country = var("c").isa("country")
+                .has("name", line.get("Official Name"))
+                .has("ISO-id", line.get("ISO"));
         // join date and participates-CITES and CITES-partipation-type
 
         String participationType = line.get("Type");
         if (!participationType.trim().isEmpty()) {
-            bs.add(", has CITES-participation-type ");
-            bs.addQuoted(participationType);
-            bs.add(", has CITES-participation true");
-            bs.add(", has CITES-entry-into-force-date  ");
             // need to parse out date
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd/MM/yyyy");
-            LocalDate date = LocalDate.from(formatter.parse(line.get("Entry into force")));
-            DateTimeFormatter graqlDateFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-            String graqlDateString = graqlDateFormat.format(date).toString();
-            bs.add(graqlDateString);
+            LocalDate date = LocalDate.from(ENTRY_INTO_FORCE_FORMAT.parse(line.get("Entry into force")));
+            return country.has("CITES-participation-type", participationType)
+                    .has("CITES-participation", true)
+                    .has("CITES-entry-into-force-date", date.atStartOfDay());
         } else {
-            bs.add(", has CITES-participation false");
+            return country.has("CITES-participation", false);
         }
-        bs.add(";");
-        return bs.toString();
     }
     @Override
-    public String getCheckExistQuery(Map<String, String> line) {
-        return "match " + this.sharedString(line) + " get;";
+    public GraqlGet getCheckExistQuery(Map<String, String> line) {
+        return Graql.match(this.sharedStatement(line)).get();
+    }
+    @Override
+    public String getIdentifier(Map<String, String> line) {
+        return line.get("ISO");
     }
     @Override
-    public String getQuery(Map<String, String> line) {
+    public GraqlGet getExistingIdentifiersQuery() {
+        return Graql.match(var("c").isa("country").has("ISO-id", var("id"))).get("id");
+    }
+    @Override
+    public GraqlInsert getQuery(Map<String, String> line) {
         // assume this query is only run ONCE per unique country name
         // and that the region already exists!
         // insert the hierarchy relationship
         // TODO this is probably not good practice, should put this behavior somewhere else
         // TODO however is convenient since have access to $c for country
-        // TODO but again this is brittle since $c is generated in a different method `sharedString`...
-        BuildString bs = new BuildString();
-        bs.add("match $cont isa continent, has name ");
-        bs.addQuoted(line.get("Region"));
-        bs.add("; insert ");
-        bs.add(this.sharedString(line));
-        bs.add("(containing-continent: $cont, contained-country: $c) isa continent-country-containment;");
-        return bs.toString();
+        // TODO but again this is brittle since $c is generated in a different method `sharedStatement`...
+        return Graql.match(var("cont").isa("continent").has("name", line.get("Region")))
+                .insert(this.sharedStatement(line),
+                        var().rel("containing-continent", "cont").rel("contained-country", "c")
+                                .isa("continent-country-containment"));
     }
 }
 
 // intended for use with auxiliary CSV with Country - Region mapping
 class ContinentInsertQuery extends SingletonInsertMigrationQuery {
-    private String sharedString(Map<String, String> line) {
-        BuildString bs = new BuildString();
-        bs.add("$r isa continent, has name ");
-        bs.addQuoted(line.get("Region")); // TODO check if this is the right key
-        bs.add(";");
-        return bs.toString();
+    private Statement sharedStatement(Map<String, String> line) {
+        return var("r").isa("continent").has("name", line.get("Region")); // TODO check if this is the right key
     }
 
     @Override
-    public String getCheckExistQuery(Map<String, String> line) {
-        return "match " + this.sharedString(line) + " get;";
+    public GraqlGet getCheckExistQuery(Map<String, String> line) {
+        return Graql.match(this.sharedStatement(line)).get();
+    }
+    @Override
+    public String getIdentifier(Map<String, String> line) {
+        return line.get("Region");
+    }
+    @Override
+    public GraqlGet getExistingIdentifiersQuery() {
+        return Graql.match(var("r").isa("continent").has("name", var("id"))).get("id");
     }
     @Override
-    public String getQuery(Map<String, String> line) {
-        return "insert " + this.sharedString(line); //hacks
+    public GraqlInsert getQuery(Map<String, String> line) {
+        return Graql.insert(this.sharedStatement(line));
     }
 }
 
 
 // For main CSV with animal import/export data
-class ClassInsertQuery extends SingletonInsertMigrationQuery {
-    private String sharedString(Map<String, String> line) {
-        BuildString bs = new BuildString();
-        bs.add("$c isa taxonomic-class, has name ");
-        bs.addQuoted(line.get("Class")); // TODO check if this is the right key
-        bs.add(";");
-        return bs.toString();
+class ClassInsertQuery extends HierarchyInsertMigrationQuery {
+    private Statement sharedStatement(Map<String, String> line) {
+        return var("c").isa("taxonomic-class").has("name", line.get("Class")); // TODO check if this is the right key
     }
 
     @Override
-    public String getCheckExistQuery(Map<String, String> line) {
-        return "match " + this.sharedString(line) + " get;";
+    public GraqlGet getCheckExistQuery(Map<String, String> line) {
+        return Graql.match(this.sharedStatement(line)).get();
+    }
+    @Override
+    public String getIdentifier(Map<String, String> line) {
+        return line.get("Class");
+    }
+    @Override
+    public GraqlGet getExistingIdentifiersQuery() {
+        return Graql.match(var("c").isa("taxonomic-class").has("name", var("id"))).get("id");
+    }
+    @Override
+    public GraqlInsert getQuery(Map<String, String> line) {
+        return Graql.insert(this.sharedStatement(line));
+    }
+    @Override
+    String getVariable() {
+        return "c";
+    }
+    @Override
+    public GraqlGet getExistingConceptsQuery() {
+        return Graql.match(var("c").isa("taxonomic-class").has("name", var("id"))).get("c", "id");
     }
     @Override
-    public String getQuery(Map<String, String> line) {
-        return  "insert " + this.sharedString(line);
+    public GraqlInsert getQuery(Map<String, String> line, String parentId) {
+        // the top of the hierarchy, with no parent
+        return getQuery(line);
     }
 }
 
-class OrderInsertQuery extends SingletonInsertMigrationQuery {
-    private String sharedString(Map<String, String> line) {
-        BuildString bs = new BuildString();
-        bs.add("$x isa taxonomic-order, has name ");
-        bs.addQuoted(line.get("Order")); // TODO check if this is the right key
-        bs.add(";");
-        return bs.toString();
+class OrderInsertQuery extends HierarchyInsertMigrationQuery {
+    private Statement sharedStatement(Map<String, String> line) {
+        return var("x").isa("taxonomic-order").has("name", line.get("Order")); // TODO check if this is the right key
     }
 
     @Override
-    public String getCheckExistQuery(Map<String, String> line) {
-        return "match " + this.sharedString(line) + " get;";
+    public GraqlGet getCheckExistQuery(Map<String, String> line) {
+        return Graql.match(this.sharedStatement(line)).get();
     }
     @Override
-    public String getQuery(Map<String, String> line) {
+    public String getIdentifier(Map<String, String> line) {
+        return line.get("Order");
+    }
+    @Override
+    public GraqlGet getExistingIdentifiersQuery() {
+        return Graql.match(var("x").isa("taxonomic-order").has("name", var("id"))).get("id");
+    }
+    @Override
+    public GraqlInsert getQuery(Map<String, String> line) {
         // get the query to insert $x, the order
         // assume this is only called once, and that super (`class`) is already inserted once
-        BuildString bs = new BuildString();
-        bs.add("match $c isa taxonomic-class, has name ");
-        bs.addQuoted(line.get("Class"));
-        bs.add("; insert ");
-        bs.add(this.sharedString(line));
-        bs.add(" (super-taxon: $c, sub-taxon: $x) isa taxonomic-hierarchy;");
-        return bs.toString();
+        return Graql.match(var("c").isa("taxonomic-class").has("name", line.get("Class")))
+                .insert(this.sharedStatement(line),
+                        var().rel("super-taxon", "c").rel("sub-taxon", "x").isa("taxonomic-hierarchy"));
+    }
+    @Override
+    String getVariable() {
+        return "x";
+    }
+    @Override
+    public GraqlGet getExistingConceptsQuery() {
+        return Graql.match(var("x").isa("taxonomic-order").has("name", var("id"))).get("x", "id");
+    }
+    @Override
+    public GraqlInsert getQuery(Map<String, String> line, String parentId) {
+        return Graql.match(var("c").id(parentId))
+                .insert(this.sharedStatement(line),
+                        var().rel("super-taxon", "c").rel("sub-taxon", "x").isa("taxonomic-hierarchy"));
     }
 }
 
-class FamilyInsertQuery extends SingletonInsertMigrationQuery {
-    private String sharedString(Map<String, String> line) {
-        BuildString bs = new BuildString();
-        bs.add("$f isa taxonomic-family, has name ");
-        bs.addQuoted(line.get("Family")); // TODO check if this is the right key
-        bs.add(";");
-        return bs.toString();
+class FamilyInsertQuery extends HierarchyInsertMigrationQuery {
+    private Statement sharedStatement(Map<String, String> line) {
+        return var("f").isa("taxonomic-family").has("name", line.get("Family")); // TODO check if this is the right key
     }
 
     @Override
-    public String getCheckExistQuery(Map<String, String> line) {
-        return "match " + this.sharedString(line) + " get;";
+    public GraqlGet getCheckExistQuery(Map<String, String> line) {
+        return Graql.match(this.sharedStatement(line)).get();
+    }
+    @Override
+    public String getIdentifier(Map<String, String> line) {
+        return line.get("Family");
     }
     @Override
-    public String getQuery(Map<String, String> line) {
+    public GraqlGet getExistingIdentifiersQuery() {
+        return Graql.match(var("f").isa("taxonomic-family").has("name", var("id"))).get("id");
+    }
+    @Override
+    public GraqlInsert getQuery(Map<String, String> line) {
         // get the query to insert $x, the order
         // assume this is only called once, and that super (`class`) is already inserted once
-        BuildString bs = new BuildString();
-        bs.add("match $x isa taxonomic-order, has name ");
-        bs.addQuoted(line.get("Order"));
-        bs.add("; insert ");
-        bs.add(this.sharedString(line));
-        bs.add(" (super-taxon: $x, sub-taxon: $f) isa taxonomic-hierarchy;");
-        return bs.toString();
+        return Graql.match(var("x").isa("taxonomic-order").has("name", line.get("Order")))
+                .insert(this.sharedStatement(line),
+                        var().rel("super-taxon", "x").rel("sub-taxon", "f").isa("taxonomic-hierarchy"));
+    }
+    @Override
+    String getVariable() {
+        return "f";
+    }
+    @Override
+    public GraqlGet getExistingConceptsQuery() {
+        return Graql.match(var("f").isa("taxonomic-family").has("name", var("id"))).get("f", "id");
+    }
+    @Override
+    public GraqlInsert getQuery(Map<String, String> line, String parentId) {
+        return Graql.match(var("x").id(parentId))
+                .insert(this.sharedStatement(line),
+                        var().rel("super-taxon", "x").rel("sub-taxon", "f").isa("taxonomic-hierarchy"));
     }
 }
 
-class GenusInsertQuery extends SingletonInsertMigrationQuery {
-    private String sharedString(Map<String, String> line) {
-        BuildString bs = new BuildString();
-        bs.add("$g isa taxonomic-genus, has name ");
-        bs.addQuoted(line.get("Genus")); // TODO check if this is the right key
-        bs.add(";");
-        return bs.toString();
+class GenusInsertQuery extends HierarchyInsertMigrationQuery {
+    private Statement sharedStatement(Map<String, String> line) {
+        return var("g").isa("taxonomic-genus").has("name", line.get("Genus")); // TODO check if this is the right key
     }
 
     @Override
-    public String getCheckExistQuery(Map<String, String> line) {
-        return "match " + this.sharedString(line) + " get;";
+    public GraqlGet getCheckExistQuery(Map<String, String> line) {
+        return Graql.match(this.sharedStatement(line)).get();
+    }
+    @Override
+    public String getIdentifier(Map<String, String> line) {
+        return line.get("Genus");
     }
     @Override
-    public String getQuery(Map<String, String> line) {
+    public GraqlGet getExistingIdentifiersQuery() {
+        return Graql.match(var("g").isa("taxonomic-genus").has("name", var("id"))).get("id");
+    }
+    @Override
+    public GraqlInsert getQuery(Map<String, String> line) {
         // assume this is only called once, and that super (`class`) is already inserted once
-        BuildString bs = new BuildString();
-        bs.add("match $f isa taxonomic-family, has name ");
-        bs.addQuoted(line.get("Family"));
-        bs.add("; insert ");
-        bs.add(this.sharedString(line));
-        bs.add(" (super-taxon: $f, sub-taxon: $g) isa taxonomic-hierarchy;");
-        return bs.toString();
+        return Graql.match(var("f").isa("taxonomic-family").has("name", line.get("Family")))
+                .insert(this.sharedStatement(line),
+                        var().rel("super-taxon", "f").rel("sub-taxon", "g").isa("taxonomic-hierarchy"));
+    }
+    @Override
+    String getVariable() {
+        return "g";
+    }
+    @Override
+    public GraqlGet getExistingConceptsQuery() {
+        return Graql.match(var("g").isa("taxonomic-genus").has("name", var("id"))).get("g", "id");
+    }
+    @Override
+    public GraqlInsert getQuery(Map<String, String> line, String parentId) {
+        return Graql.match(var("f").id(parentId))
+                .insert(this.sharedStatement(line),
+                        var().rel("super-taxon", "f").rel("sub-taxon", "g").isa("taxonomic-hierarchy"));
     }
 }
 
-class SpeciesInsertQuery extends SingletonInsertMigrationQuery {
-    private String sharedString(Map<String, String> line) {
-        BuildString bs = new BuildString();
-        bs.add("$t isa taxonomic-species, has name ");
-        bs.addQuoted(line.get("Taxon")); // TODO check if this is the right key
-        bs.add(";");
-        return bs.toString();
+class SpeciesInsertQuery extends HierarchyInsertMigrationQuery {
+    private Statement sharedStatement(Map<String, String> line) {
+        return var("t").isa("taxonomic-species").has("name", line.get("Taxon")); // TODO check if this is the right key
     }
 
     @Override
-    public String getCheckExistQuery(Map<String, String> line) {
-        return "match " + this.sharedString(line) + " get;";
+    public GraqlGet getCheckExistQuery(Map<String, String> line) {
+        return Graql.match(this.sharedStatement(line)).get();
+    }
+    @Override
+    public String getIdentifier(Map<String, String> line) {
+        return line.get("Taxon");
+    }
+    @Override
+    public GraqlGet getExistingIdentifiersQuery() {
+        return Graql.match(var("t").isa("taxonomic-species").has("name", var("id"))).get("id");
     }
     @Override
-    public String getQuery(Map<String, String> line) {
+    public GraqlInsert getQuery(Map<String, String> line) {
         // assume this is only called once, and that super (`class`) is already inserted once
-        BuildString bs = new BuildString();
-        bs.add("match $g isa taxonomic-genus, has name ");
-        bs.addQuoted(line.get("Genus"));
-        bs.add("; insert ");
-        bs.add(this.sharedString(line));
-        bs.add(" (super-taxon: $g, sub-taxon: $t) isa taxonomic-hierarchy;");
-        return bs.toString();
+        return Graql.match(var("g").isa("taxonomic-genus").has("name", line.get("Genus")))
+                .insert(this.sharedStatement(line),
+                        var().rel("super-taxon", "g").rel("sub-taxon", "t").isa("taxonomic-hierarchy"));
+    }
+    @Override
+    String getVariable() {
+        return "t";
+    }
+    @Override
+    public GraqlGet getExistingConceptsQuery() {
+        return Graql.match(var("t").isa("taxonomic-species").has("name", var("id"))).get("t", "id");
+    }
+    @Override
+    public GraqlInsert getQuery(Map<String, String> line, String parentId) {
+        return Graql.match(var("g").id(parentId))
+                .insert(this.sharedStatement(line),
+                        var().rel("super-taxon", "g").rel("sub-taxon", "t").isa("taxonomic-hierarchy"));
     }
 }
 
@@ -310,91 +359,157 @@ class SpeciesInsertQuery extends SingletonInsertMigrationQuery {
 // insert majority of information
 
 
-class MainImportQuery extends MigrationQuery {
-    @Override
-    public String getQuery(Map<String, String> line) {
-        BuildString bs = new BuildString();
-        // match
-        bs.add("match $importer isa country, has ISO-id ");
-        bs.addQuoted(line.get("Importer"));
-        bs.add("; ");
-        bs.add("$exporter isa country, has ISO-id ");
-        bs.addQuoted(line.get("Exporter"));
-        bs.add("; ");
-        bs.add("$s isa taxonomic-species, has name ");
-        bs.addQuoted(line.get("Taxon"));
-        bs.add("; ");
-
-        // insert
-        bs.add("insert ");
-        bs.add("$m isa measurement, has unit-of-measurement ");
-        bs.addQuoted(line.get("Unit"));
-        bs.add(", has measured-quantity " + String.format("%f", Double.parseDouble(line.get("Importer reported quantity"))));
-        bs.add("; ");
-        bs.add("$item isa traded-item, has item-purpose ");
-        bs.addQuoted(line.get("Purpose"));
-        bs.add(", has item-source ");
-        bs.addQuoted(line.get("Source"));
-        bs.add(", has item-type");
-        bs.addQuoted(line.get("Term"));
-        bs.add("; ");
-        bs.add("$import(imported-item: $item, receiving-country: $importer, providing-country: $exporter) isa import, has exchange-date ");
-        int year = Integer.parseInt(line.get("Year"));
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-        LocalDate date = LocalDate.of(year, 1, 1);
-        String dateString = date.format(formatter);
-        bs.add(dateString);
-        bs.add(", has appendix ");
-        bs.add(appendixMapping().get(line.get("App.")));
-        bs.add("; ");
-        bs.add("$r (quantified-subject: $item, quantification-measurement: $m) isa quantification; ") ;
-        bs.add("(member-item: $item, taxonomic-group: $s) isa taxon-membership;");
-        return bs.toString();
+// one insert for the import and/or export reported on a line, and the correspondence between them when there are both
+class ExchangeInsertQuery extends MigrationQuery {
+
+    // each match statement depends on a single value or concept id, and there are few of those, so each is built once
+    private final ConcurrentMap<String, Statement> importers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Statement> exporters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Statement> species = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Statement> importerIds = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Statement> exporterIds = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Statement> speciesIds = new ConcurrentHashMap<>();
+    // so are the measurement's unit and the traded item's attributes, by the ids of their values in a CSVRow; a load
+    // gets its own query, and its rows all have their ids from the same dictionaries, or the same table
+    private final Fragments importUnits = new Fragments();
+    private final Fragments exportUnits = new Fragments();
+    private final ConcurrentMap<Long, Statement> importedItems = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, Statement> exportedItems = new ConcurrentHashMap<>();
+
+    @Override
+    public GraqlInsert getQuery(Map<String, String> line) {
+        return getQuery(line, ConceptIndex.EMPTY);
     }
-}
 
-class MainExportQuery extends MigrationQuery {
-    @Override
-    public String getQuery(Map<String, String> line) {
-        BuildString bs = new BuildString();
-        // match
-        bs.add("match $importer isa country, has ISO-id ");
-        bs.addQuoted(line.get("Importer"));
-        bs.add("; ");
-        bs.add("$exporter isa country, has ISO-id ");
-        bs.addQuoted(line.get("Exporter"));
-        bs.add("; ");
-        bs.add("$s isa taxonomic-species, has name ");
-        bs.addQuoted(line.get("Taxon"));
-        bs.add("; ");
-
-        // insert
-        bs.add("insert ");
-        bs.add("$m isa measurement, has unit-of-measurement ");
-        bs.addQuoted(line.get("Unit"));
-        bs.add(", has measured-quantity " + String.format("%f", Double.parseDouble(line.get("Exporter reported quantity")))); // ** difference **
-        bs.add("; ");
-        bs.add("$item isa traded-item, has item-purpose ");
-        bs.addQuoted(line.get("Purpose"));
-        bs.add(", has item-source ");
-        bs.addQuoted(line.get("Source"));
-        bs.add(", has item-type ");
-        bs.addQuoted(line.get("Term"));
-        bs.add("; ");
-        bs.add("$export (exported-item: $item, receiving-country: $importer, providing-country: $exporter) isa export, has exchange-date "); // ** difference **
-        int year = Integer.parseInt(line.get("Year"));
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-        LocalDate date = LocalDate.of(year, 1, 1);
-        String dateString = date.format(formatter);
-        bs.add(dateString);
-        bs.add(", has appendix ");
-        bs.add(appendixMapping().get(line.get("App.")));
-        bs.add("; ");
-        bs.add("$r (quantified-subject: $item, quantification-measurement: $m) isa quantification; ");
-        bs.add("(member-item: $item, taxonomic-group: $s) isa taxon-membership;");
-        return bs.toString();
+    /*
+     * Matches the countries and species by their concept ids in `index` where it has them, else by ISO-id and name
+     * Concept ids are only good for the keyspace they were read from
+     */
+    @Override
+    GraqlInsert getQuery(Map<String, String> line, ConceptIndex index) {
+        String importerId = index.country(line.get("Importer"));
+        String exporterId = index.country(line.get("Exporter"));
+        String speciesId = index.species(line.get("Taxon"));
+        return Graql.match(
+                importerId != null
+                        ? fragment(importerIds, importerId, id -> var("importer").id(id))
+                        : fragment(importers, line.get("Importer"), iso -> var("importer").isa("country").has("ISO-id", iso)),
+                exporterId != null
+                        ? fragment(exporterIds, exporterId, id -> var("exporter").id(id))
+                        : fragment(exporters, line.get("Exporter"), iso -> var("exporter").isa("country").has("ISO-id", iso)),
+                speciesId != null
+                        ? fragment(speciesIds, speciesId, id -> var("s").id(id))
+                        : fragment(species, line.get("Taxon"), taxon -> var("s").isa("taxonomic-species").has("name", taxon))
+        ).insert(getInserts(line));
+    }
+
+    private List<Statement> getInserts(Map<String, String> line) {
+        String imported = quantity(line, "Importer reported quantity");
+        String exported = quantity(line, "Exporter reported quantity");
+        LocalDateTime date = yearStart(Integer.parseInt(line.get("Year")));
+        long appendix = appendixNumber(line.get("App."));
+
+        List<Statement> inserts = new ArrayList<>();
+        if (!imported.isEmpty()) {
+            addExchange(inserts, line, "import", "imported-item", Double.parseDouble(imported), date, appendix,
+                    importUnits, importedItems);
+        }
+        if (!exported.isEmpty()) {
+            addExchange(inserts, line, "export", "exported-item", Double.parseDouble(exported), date, appendix,
+                    exportUnits, exportedItems);
+        }
+        if (!imported.isEmpty() && !exported.isEmpty()) {
+            inserts.add(var().rel("corresponding-import", "import").rel("corresponding-export", "export")
+                    .isa("import-export-correspondence"));
+        }
+        return inserts;
     }
-}
 
+    // a column a short record hasn't got is as good as empty
+    private static String quantity(Map<String, String> line, String column) {
+        String quantity = line.get(column);
+        return quantity != null ? quantity : "";
+    }
+
+    // Graql statements are immutable, so one can go into any number of queries, on any thread
+    private static <K> Statement fragment(ConcurrentMap<K, Statement> cache, K value, Function<K, Statement> build) {
+        Statement statement = cache.get(value);
+        if (statement == null) {
+            statement = build.apply(value);
+            Statement raced = cache.putIfAbsent(value, statement);
+            if (raced != null) {
+                statement = raced;
+            }
+        }
+        return statement;
+    }
+
+    // the traded item, its measured quantity, and the import or export moving it between the two countries
+    private static void addExchange(List<Statement> inserts, Map<String, String> line, String exchange, String itemRole,
+                                    double quantity, LocalDateTime date, long appendix,
+                                    Fragments units, ConcurrentMap<Long, Statement> items) {
+        String item = exchange + "-item";
+        String measurement = exchange + "-measurement";
+        CSVRow row = line instanceof CSVRow ? (CSVRow) line : null;
+        int unit = row != null ? row.id("Unit") : -1;
+        Statement measured = unit >= 0
+                ? units.get(unit, id -> measurement(measurement, line))
+                : measurement(measurement, line);
+        inserts.add(measured.has("measured-quantity", quantity));
+        long itemKey = row != null ? itemKey(row.id("Purpose"), row.id("Source"), row.id("Term")) : -1;
+        inserts.add(itemKey >= 0
+                ? fragment(items, itemKey, key -> tradedItem(item, line))
+                : tradedItem(item, line));
+        inserts.add(var(exchange).rel(itemRole, item).rel("receiving-country", "importer").rel("providing-country", "exporter")
+                .isa(exchange)
+                .has("exchange-date", date)
+                .has("appendix", appendix));
+        inserts.add(var().rel("quantified-subject", item).rel("quantification-measurement", measurement).isa("quantification"));
+        inserts.add(var().rel("member-item", item).rel("taxonomic-group", "s").isa("taxon-membership"));
+    }
+
+    private static Statement measurement(String measurement, Map<String, String> line) {
+        return var(measurement).isa("measurement").has("unit-of-measurement", line.get("Unit"));
+    }
+
+    private static Statement tradedItem(String item, Map<String, String> line) {
+        return var(item).isa("traded-item")
+                .has("item-purpose", line.get("Purpose"))
+                .has("item-source", line.get("Source"))
+                .has("item-type", line.get("Term"));
+    }
+
+    // the three ids in one key, or -1 if any is missing; a column has far fewer than 2^21 distinct values
+    private static long itemKey(int purpose, int source, int term) {
+        if (purpose < 0 || source < 0 || term < 0 || (purpose | source | term) >= 1 << 21) {
+            return -1;
+        }
+        return (long) purpose << 42 | (long) source << 21 | term;
+    }
 
+    /*
+     * A statement per id of a value, in an array indexed by the id, as the ids of a dictionary count up from 0
+     * Copied on insert and published through a volatile field, like ValueDictionary, so lookups take no lock
+     */
+    private static final class Fragments {
 
+        private volatile Statement[] statements = new Statement[0];
+
+        Statement get(int id, IntFunction<Statement> build) {
+            Statement[] current = statements;
+            if (id < current.length && current[id] != null) {
+                return current[id];
+            }
+            synchronized (this) {
+                current = statements;
+                if (id < current.length && current[id] != null) {
+                    return current[id];
+                }
+                Statement[] grown = Arrays.copyOf(current, Math.max(current.length, id + 1));
+                grown[id] = build.apply(id);
+                statements = grown;
+                return grown[id];
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package grakn.examples.animaltrade;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Second phase of the trade data load: batches the import/export rows and commits them asynchronously
+ * The rows are read from the trade data, or are the queries generated from it when replaying those
+ *
+ * Every keyspace has its own transaction window, so the keyspaces are written concurrently and a slow one only holds
+ * back the readers once its window is full. The exchange, its import and export and their correspondence are one
+ * insert, and the taxonomy and countries are already loaded, so the rows can be committed in any order
+ *
+ * One LoadController sets the batch size and the transactions in flight for every keyspace, since they share a server
+ */
+class FactLoader<T> implements AutoCloseable {
+
+    private final List<TransactionWindow> windows = new ArrayList<>();
+    private final List<BatchLoader<T>> loaders = new ArrayList<>();
+
+    /*
+     * `rowLoaders` has one loader for each keyspace, in the same order, and `queryClass` is what they insert
+     * Each keyspace is written through its session in `sessions`, with as many transactions as `controller` says
+     */
+    FactLoader(List<String> keyspaces, List<? extends Sink.Session> sessions, LoadController controller, String queryClass,
+               List<BatchLoader.RowLoader<T>> rowLoaders, LoaderMetrics metrics) {
+        for (int keyspace = 0; keyspace < keyspaces.size(); keyspace++) {
+            TransactionWindow window = new TransactionWindow(sessions.get(keyspace), controller.inFlight(),
+                    controller.maxInFlight());
+            windows.add(window);
+            controller.control(window);
+            loaders.add(new BatchLoader<>(window, queryClass, controller, rowLoaders.get(keyspace), metrics));
+            metrics.registerGauge("in-flight-" + keyspaces.get(keyspace), window::inFlight);
+        }
+        metrics.registerGauge("batch-size", controller::batchSize);
+        metrics.registerGauge("in-flight-limit", controller::inFlight);
+    }
+
+    /*
+     * Add a row for the keyspace at the given index, blocking while that keyspace's window is full
+     */
+    void submit(int keyspace, T row) {
+        loaders.get(keyspace).add(row);
+    }
+
+    /*
+     * Waits for every submitted row to be committed
+     */
+    @Override
+    public void close() {
+        try {
+            loaders.forEach(BatchLoader::close);
+        } finally {
+            windows.forEach(TransactionWindow::close);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package grakn.examples.animaltrade;
+
+import grakn.core.client.GraknClient;
+import graql.lang.query.GraqlGet;
+import graql.lang.query.GraqlInsert;
+import graql.lang.query.GraqlQuery;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+ * Writes to a Grakn server, with a session per keyspace from one shared client
+ */
+class GraknSink implements Sink {
+
+    private final GraknClient client;
+
+    GraknSink(String uri) {
+        this.client = new GraknClient(uri);
+    }
+
+    @Override
+    public Sink.Session session(String keyspace) {
+        GraknClient.Session session;
+        try {
+            session = client.session(keyspace);
+        } catch (RuntimeException e) {
+            throw failure("open a session on " + keyspace, e);
+        }
+        return new Sink.Session() {
+            @Override
+            public Sink.Transaction write() {
+                try {
+                    return new Transaction(session.transaction().write());
+                } catch (RuntimeException e) {
+                    throw failure("open a write transaction on " + keyspace, e);
+                }
+            }
+
+            @Override
+            public Sink.Transaction read() {
+                try {
+                    return new Transaction(session.transaction().read());
+                } catch (RuntimeException e) {
+                    throw failure("open a read transaction on " + keyspace, e);
+                }
+            }
+
+            @Override
+            public void close() {
+                session.close();
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        client.close();
+    }
+
+    // whatever the client throws, including for a query the server rejects, is a failure of the transaction
+    private static Sink.TransactionException failure(String action, RuntimeException e) {
+        return new Sink.TransactionException("Failed to " + action + ": " + e.getMessage(), e);
+    }
+
+    private static class Transaction implements Sink.Transaction {
+
+        private final GraknClient.Transaction tx;
+
+        Transaction(GraknClient.Transaction tx) {
+            this.tx = tx;
+        }
+
+        @Override
+        public void define(GraqlQuery query) {
+            try {
+                tx.execute(query);
+            } catch (RuntimeException e) {
+                throw failure("define", e);
+            }
+        }
+
+        @Override
+        public int insert(GraqlInsert query) {
+            try {
+                return tx.execute(query).size();
+            } catch (RuntimeException e) {
+                throw failure("insert", e);
+            }
+        }
+
+        @Override
+        public List<String> insert(GraqlInsert query, String variable) {
+            try {
+                return tx.execute(query).stream().map(answer -> answer.get(variable).id().getValue())
+                        .collect(Collectors.toList());
+            } catch (RuntimeException e) {
+                throw failure("insert", e);
+            }
+        }
+
+        @Override
+        public boolean exists(GraqlGet query) {
+            try {
+                return tx.stream(query).findFirst().isPresent();
+            } catch (RuntimeException e) {
+                throw failure("match", e);
+            }
+        }
+
+        @Override
+        public Stream<String> values(GraqlGet query, String variable) {
+            try {
+                // read here, so a failure part way through is one of the transaction too
+                return tx.stream(query).map(answer -> answer.get(variable).asAttribute().value().toString())
+                        .collect(Collectors.toList()).stream();
+            } catch (RuntimeException e) {
+                throw failure("match", e);
+            }
+        }
+
+        @Override
+        public Map<String, String> conceptIds(GraqlGet query, String keyVariable, String conceptVariable) {
+            Map<String, String> ids = new HashMap<>();
+            try {
+                tx.stream(query).forEach(answer -> ids.put(answer.get(keyVariable).asAttribute().value().toString(),
+                        answer.get(conceptVariable).id().getValue()));
+            } catch (RuntimeException e) {
+                throw failure("match", e);
+            }
+            return ids;
+        }
+
+        @Override
+        public void commit() {
+            try {
+                tx.commit();
+            } catch (RuntimeException e) {
+                throw failure("commit", e);
+            }
+        }
+
+        @Override
+        public void close() {
+            tx.close();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package grakn.examples.animaltrade;
+
+import graql.lang.query.GraqlGet;
+import graql.lang.query.GraqlInsert;
+
+import java.util.Map;
+
+/*
+ * A level of a hierarchy, like the taxonomy, whose instances are each linked to a parent on the level above
+ */
+public abstract class HierarchyInsertMigrationQuery extends SingletonInsertMigrationQuery {
+
+    // the variable the inserted instance is bound to
+    abstract String getVariable();
+
+    // a get query for the identifier ($id) and the instance (the variable) of every instance already in the keyspace
+    abstract GraqlGet getExistingConceptsQuery();
+
+    // inserts the instance linked to the parent with the given concept id, rather than matching the parent by name
+    // the parent is ignored at the top of the hierarchy
+    abstract GraqlInsert getQuery(Map<String, String> line, String parentId);
+}
@@ -0,0 +1,190 @@
+package grakn.examples.animaltrade;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/*
+ * How the trade rows are divided between keyspaces, eg. `train:0.8,test:0.1,validate:0.1`
+ *
+ * Each row goes to the keyspace its hash falls into, so the split is the same on every run over the same data,
+ * whatever order the rows are read in and however often a load is resumed. Change the seed for a different,
+ * equally reproducible, split. By default the hash is of the whole row; hashing only some columns, eg. `Taxon`,
+ * keeps every row with the same values in those columns in the same keyspace
+ *
+ * The year and quantities are hashed as the numbers they are rather than as text, so a row splits the same whether it
+ * is read from the CSV, where a quantity may be written "1" or "1.0", or from a preprocessed table, which keeps only
+ * its value
+ */
+class KeyspaceSplit {
+
+    static final String KEYSPACE_PREFIX = "animaltrade_";
+    static final String DEFAULT_SPLIT = "train:0.5,test:0.5";
+
+    private static final List<String> NUMBER_COLUMNS =
+            Arrays.asList("Year", "Importer reported quantity", "Exporter reported quantity");
+    // in the description a checkpoint keeps, so a load split by an earlier way of hashing isn't resumed with this one
+    private static final int HASH_VERSION = 2;
+
+    /*
+     * What a row is hashed by, for rows with a given header
+     */
+    static class Key {
+        // empty when the whole row is the key
+        final int[] columns;
+        // by column, those hashed as numbers
+        final boolean[] numbers;
+
+        private Key(int[] columns, boolean[] numbers) {
+            this.columns = columns;
+            this.numbers = numbers;
+        }
+    }
+
+    private final List<String> names;
+    private final double[] weights;
+    // upper bound of each keyspace's share of [0, 1)
+    private final double[] bounds;
+    private final long seed;
+    private final List<String> keyColumns;
+
+    private KeyspaceSplit(List<String> names, double[] weights, long seed, List<String> keyColumns) {
+        this.names = names;
+        this.weights = weights;
+        this.seed = seed;
+        this.keyColumns = keyColumns;
+        double total = Arrays.stream(weights).sum();
+        this.bounds = new double[weights.length];
+        double cumulative = 0;
+        for (int i = 0; i < weights.length; i++) {
+            cumulative += weights[i];
+            bounds[i] = cumulative / total;
+        }
+        // rounding must not leave the top of the range unassigned
+        bounds[bounds.length - 1] = 1.0;
+    }
+
+    /*
+     * `split` is a comma separated list of name:weight, `keyColumns` a comma separated list of columns or null for all
+     */
+    static KeyspaceSplit parse(String split, long seed, String keyColumns) {
+        List<String> names = new ArrayList<>();
+        String[] parts = split.split(",");
+        double[] weights = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            int colon = parts[i].indexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("--split expects name:weight pairs, got " + parts[i]);
+            }
+            String name = parts[i].substring(0, colon).trim();
+            if (names.contains(name)) {
+                throw new IllegalArgumentException("--split names " + name + " more than once");
+            }
+            names.add(name);
+            try {
+                weights[i] = Double.parseDouble(parts[i].substring(colon + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("--split expects a number as the weight of " + name, e);
+            }
+            if (!(weights[i] > 0) || Double.isInfinite(weights[i])) {
+                throw new IllegalArgumentException("--split weight of " + name + " must be positive, got " + weights[i]);
+            }
+        }
+        List<String> columns = keyColumns == null
+                ? Collections.emptyList()
+                : Collections.unmodifiableList(Arrays.asList(keyColumns.split(",")));
+        return new KeyspaceSplit(Collections.unmodifiableList(names), weights, seed, columns);
+    }
+
+    int size() {
+        return names.size();
+    }
+
+    List<String> keyspaces() {
+        List<String> keyspaces = new ArrayList<>();
+        for (String name : names) {
+            keyspaces.add(KEYSPACE_PREFIX + name);
+        }
+        return keyspaces;
+    }
+
+    String name(int keyspace) {
+        return names.get(keyspace);
+    }
+
+    /*
+     * The key of the rows of the CSV
+     */
+    Key key(CSVRowReader csv) {
+        return key(csv.header(), csv::column);
+    }
+
+    /*
+     * The key of the rows of a preprocessed table, which split as those of the CSV it was made from do
+     */
+    Key key(TradeTable table) {
+        return key(table.header(), table::column);
+    }
+
+    private Key key(String[] header, ToIntFunction<String> column) {
+        int[] columns = new int[keyColumns.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = column.applyAsInt(keyColumns.get(i));
+        }
+        boolean[] numbers = new boolean[header.length];
+        for (int i = 0; i < header.length; i++) {
+            numbers[i] = NUMBER_COLUMNS.contains(header[i]);
+        }
+        return new Key(columns, numbers);
+    }
+
+    /*
+     * Which keyspace a row belongs in, from the fields as read from the file, so before any `set`
+     */
+    int keyspaceOf(CSVRow row, Key key) {
+        long hash = seed;
+        if (key.columns.length == 0) {
+            for (int column = 0; column < row.fieldCount; column++) {
+                hash = hash(row, column, key, hash);
+            }
+        } else {
+            for (int column : key.columns) {
+                hash = hash(row, column, key, hash);
+            }
+        }
+        double point = (mix(hash) >>> 11) * 0x1.0p-53;
+        for (int i = 0; i < bounds.length - 1; i++) {
+            if (point < bounds[i]) {
+                return i;
+            }
+        }
+        return bounds.length - 1;
+    }
+
+    private static long hash(CSVRow row, int column, Key key, long hash) {
+        return column < key.numbers.length && key.numbers[column] ? row.hashNumber(column, hash) : row.hash(column, hash);
+    }
+
+    // the splitmix64 finalizer, so that similar rows land far apart
+    private static long mix(long hash) {
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        return hash ^ (hash >>> 31);
+    }
+
+    // everything that decides the split, so a checkpoint can tell whether a resumed load splits the same way
+    @Override
+    public String toString() {
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < names.size(); i++) {
+            description.append(i == 0 ? "" : ",").append(names.get(i)).append(':').append(weights[i]);
+        }
+        description.append(" seed=").append(seed).append(" hash=").append(HASH_VERSION);
+        if (!keyColumns.isEmpty()) {
+            description.append(" key=").append(String.join(",", keyColumns));
+        }
+        return description.toString();
+    }
+}
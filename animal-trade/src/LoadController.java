@@ -0,0 +1,187 @@
+package grakn.examples.animaltrade;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Picks the batch size and the transactions in flight per keyspace for the fact load, from how the commits go
+ *
+ * Every few seconds it looks at what was committed since the last look. If too many batches failed (conflicts
+ * between writers) or commits got much slower per row than the best seen (a server queueing up work), it halves the
+ * transactions in flight, and on failures shrinks the batches too. Otherwise it hill climbs on throughput: it moves
+ * one setting a step, the batch size and the transactions in flight taking turns, and if rows/sec drops after a move
+ * the move is undone and the next step of that setting goes the other way. Each move is judged against the rows/sec
+ * of the settings it was made from, so the settings end up wandering around wherever throughput peaks
+ *
+ * A fixed controller keeps the settings it starts with, for when they are known or something is being measured
+ */
+class LoadController {
+
+    // how long a setting is tried for before it's judged, and the fewest batches to judge it on
+    private static final long INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final int MIN_BATCHES = 8;
+    private static final double MAX_FAILURE_RATE = 0.05;
+    // commit time per row, over the best seen, at which the server counts as overloaded
+    private static final double MAX_LATENCY_RATIO = 3.0;
+    // the batch size moves by a factor, since the useful sizes span orders of magnitude
+    private static final double BATCH_SIZE_STEP = 1.25;
+
+    private enum Setting { BATCH_SIZE, IN_FLIGHT }
+
+    private final boolean adaptive;
+    private final int maxBatchSize;
+    private final int maxInFlight;
+    private final List<TransactionWindow> windows = new CopyOnWriteArrayList<>();
+    private volatile int batchSize;
+    private volatile int inFlight;
+
+    // since the last look
+    private long intervalStart = System.nanoTime();
+    private long rows;
+    private long batches;
+    private long failedBatches;
+    private long commitNanos;
+
+    private double bestNanosPerRow = Double.MAX_VALUE;
+    // rows/sec of the settings the last move was made from, negative when there is nothing to compare with
+    private double lastThroughput = -1;
+    private Setting lastMove;
+    // the value of the last setting moved before it was, to go back to if the move made things worse
+    private int movedFrom;
+    private int batchSizeDirection = 1;
+    private int inFlightDirection = 1;
+
+    /*
+     * Starts at `batchSize` rows per batch and `inFlight` transactions per keyspace, going no higher than the maxima
+     */
+    LoadController(int batchSize, int maxBatchSize, int inFlight, int maxInFlight, boolean adaptive) {
+        if (maxBatchSize < batchSize || maxInFlight < inFlight) {
+            throw new IllegalArgumentException("The maxima can't be below where the load starts: batch size " + batchSize
+                    + " of at most " + maxBatchSize + ", " + inFlight + " in flight of at most " + maxInFlight);
+        }
+        this.adaptive = adaptive;
+        this.batchSize = batchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.inFlight = inFlight;
+        this.maxInFlight = maxInFlight;
+    }
+
+    static LoadController fixed(int batchSize, int inFlight) {
+        return new LoadController(batchSize, batchSize, inFlight, inFlight, false);
+    }
+
+    int batchSize() {
+        return batchSize;
+    }
+
+    int inFlight() {
+        return inFlight;
+    }
+
+    int maxInFlight() {
+        return maxInFlight;
+    }
+
+    /*
+     * A window to keep at `inFlight()` transactions; it must have been made able to hold `maxInFlight()`
+     */
+    void control(TransactionWindow window) {
+        windows.add(window);
+        window.resize(inFlight);
+    }
+
+    synchronized void committed(int batchRows, long nanos) {
+        rows += batchRows;
+        batches++;
+        commitNanos += nanos;
+        adjust();
+    }
+
+    synchronized void failed() {
+        batches++;
+        failedBatches++;
+        adjust();
+    }
+
+    private void adjust() {
+        long now = System.nanoTime();
+        if (!adaptive || now - intervalStart < INTERVAL_NANOS || batches < MIN_BATCHES) {
+            return;
+        }
+        double throughput = rows * (double) TimeUnit.SECONDS.toNanos(1) / (now - intervalStart);
+        double failureRate = failedBatches / (double) batches;
+        double nanosPerRow = rows > 0 ? commitNanos / (double) rows : Double.MAX_VALUE;
+        bestNanosPerRow = Math.min(bestNanosPerRow, nanosPerRow);
+
+        if (failureRate > MAX_FAILURE_RATE || nanosPerRow > MAX_LATENCY_RATIO * bestNanosPerRow) {
+            System.out.printf("Backing off: %.0f%% of batches failed, %.2fms per row committed against a best of %.2fms\n",
+                    failureRate * 100, nanosPerRow / 1e6, bestNanosPerRow / 1e6);
+            setInFlight(Math.max(1, inFlight / 2));
+            if (failureRate > MAX_FAILURE_RATE) {
+                batchSize = Math.max(1, (int) (batchSize / BATCH_SIZE_STEP));
+            }
+            // what came before the back off says nothing about the settings after it
+            lastThroughput = -1;
+            lastMove = null;
+        } else {
+            if (lastMove != null && throughput < lastThroughput) {
+                // back to the settings `lastThroughput` was measured with, which the next move is judged against
+                undo(lastMove);
+                reverse(lastMove);
+            } else {
+                lastThroughput = throughput;
+            }
+            lastMove = lastMove == Setting.BATCH_SIZE ? Setting.IN_FLIGHT : Setting.BATCH_SIZE;
+            movedFrom = lastMove == Setting.BATCH_SIZE ? batchSize : inFlight;
+            move(lastMove);
+        }
+
+        intervalStart = now;
+        rows = 0;
+        batches = 0;
+        failedBatches = 0;
+        commitNanos = 0;
+    }
+
+    private void undo(Setting setting) {
+        if (setting == Setting.BATCH_SIZE) {
+            batchSize = movedFrom;
+        } else {
+            setInFlight(movedFrom);
+        }
+    }
+
+    private void reverse(Setting setting) {
+        if (setting == Setting.BATCH_SIZE) {
+            batchSizeDirection = -batchSizeDirection;
+        } else {
+            inFlightDirection = -inFlightDirection;
+        }
+    }
+
+    // a step in the setting's direction, turning it around at either end of its range
+    private void move(Setting setting) {
+        if (setting == Setting.BATCH_SIZE) {
+            int next = batchSizeDirection > 0
+                    ? Math.max(batchSize + 1, (int) (batchSize * BATCH_SIZE_STEP)) : (int) (batchSize / BATCH_SIZE_STEP);
+            if (next < 1 || next > maxBatchSize) {
+                batchSizeDirection = -batchSizeDirection;
+                return;
+            }
+            batchSize = next;
+        } else {
+            int next = inFlight + inFlightDirection;
+            if (next < 1 || next > maxInFlight) {
+                inFlightDirection = -inFlightDirection;
+                return;
+            }
+            setInFlight(next);
+        }
+    }
+
+    private void setInFlight(int size) {
+        inFlight = size;
+        windows.forEach(window -> window.resize(size));
+    }
+}
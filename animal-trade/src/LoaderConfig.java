@@ -0,0 +1,207 @@
+package grakn.examples.animaltrade;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Command line options for the loader, given as `--name=value`
+ * Anything not given falls back to the defaults below
+ */
+class LoaderConfig {
+
+    static final int DEFAULT_BATCH_SIZE = 100;
+
+    // the inputs, each of which may be compressed
+    final String data;
+    final String countries;
+    // holding units.csv, trade_terms.csv and purposes.csv
+    final String codes;
+    final String schema;
+
+    final int batchSize;
+    // rows per transaction for the countries and continents, which are few and small
+    final int referenceBatchSize;
+    // transactions each keyspace keeps in flight, the sessions they share, and how many of them each session takes
+    final int inFlight;
+    final int sessions;
+    final int transactionsPerSession;
+    // let the fact load move the batch size and transactions in flight from where they start, up to these
+    final boolean adaptive;
+    final int maxBatchSize;
+    final int maxInFlight;
+    final int readers;
+    final long chunkSizeMb;
+    // null for the default, next to the trade data
+    final String checkpoint;
+    // write the trade data to a preprocessed table at this path and stop, or load from one; null for neither
+    final String preprocess;
+    final String table;
+    // write every insert of the load into this directory and stop, or load the inserts written there; null for neither
+    final String generate;
+    final String replay;
+    // files the facts of each keyspace are written to by --generate
+    final int shards;
+    final boolean resume;
+    // where rows that can't be loaded are written, null for the default, next to the trade data
+    final String deadLetters;
+    // where the fingerprints of the previous load are kept, for loading only the rows new since; null for a full load
+    final String delta;
+    final KeyspaceSplit split;
+    // write to an in-memory stand-in rather than Grakn, taking this long per query and commit
+    final boolean memorySink;
+    final int sinkQueryMicros;
+    final int sinkCommitMicros;
+    final int sinkCommitMicrosPerQuery;
+    // seconds between summary lines, 0 for none
+    final int metricsInterval;
+    // where to write everything recorded at the end, null for nowhere
+    final String metricsOut;
+
+    private LoaderConfig(Map<String, String> options) {
+        data = stringOption(options, "data", "./data/CITIES_data.csv");
+        countries = stringOption(options, "countries", "./data/country_region_mapping.csv");
+        codes = stringOption(options, "codes", "./data");
+        schema = stringOption(options, "schema", "./data/schema.gql");
+        batchSize = intOption(options, "batch-size", DEFAULT_BATCH_SIZE);
+        referenceBatchSize = intOption(options, "reference-batch-size", ReferenceDataLoader.DEFAULT_BATCH_SIZE);
+        if (referenceBatchSize < 1) {
+            throw new IllegalArgumentException("--reference-batch-size must be at least 1, got " + referenceBatchSize);
+        }
+        String splitOption = options.remove("split");
+        split = KeyspaceSplit.parse(splitOption != null ? splitOption : KeyspaceSplit.DEFAULT_SPLIT,
+                longOption(options, "split-seed", 0), options.remove("split-key"));
+        // per keyspace; a transaction in flight mostly waits on the server, so there can be more than cores
+        inFlight = intOption(options, "in-flight", Math.max(2, 2 * Runtime.getRuntime().availableProcessors() / split.size()));
+        if (inFlight < 1) {
+            throw new IllegalArgumentException("--in-flight must be at least 1, got " + inFlight);
+        }
+        sessions = intOption(options, "sessions", Math.min(inFlight, 4));
+        if (sessions < 1) {
+            throw new IllegalArgumentException("--sessions must be at least 1, got " + sessions);
+        }
+        String adaptiveOption = options.remove("adaptive");
+        adaptive = adaptiveOption == null || Boolean.parseBoolean(adaptiveOption);
+        maxInFlight = intOption(options, "max-in-flight", adaptive ? 4 * inFlight : inFlight);
+        if (maxInFlight < inFlight) {
+            throw new IllegalArgumentException("--max-in-flight can't be below --in-flight, got " + maxInFlight);
+        }
+        // by default enough for the most transactions the fact load can have in flight, and a read beside them
+        transactionsPerSession = intOption(options, "transactions-per-session", (maxInFlight + sessions) / sessions);
+        if (transactionsPerSession < 1) {
+            throw new IllegalArgumentException("--transactions-per-session must be at least 1, got " + transactionsPerSession);
+        }
+        readers = intOption(options, "readers", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        if (readers < 1) {
+            throw new IllegalArgumentException("--readers must be at least 1, got " + readers);
+        }
+        chunkSizeMb = intOption(options, "chunk-size-mb", (int) (CSVChunkSplitter.DEFAULT_CHUNK_SIZE >> 20));
+        if (chunkSizeMb < 1) {
+            throw new IllegalArgumentException("--chunk-size-mb must be at least 1, got " + chunkSizeMb);
+        }
+        String sink = options.remove("sink");
+        if (sink != null && !sink.equals("grakn") && !sink.equals("memory")) {
+            throw new IllegalArgumentException("--sink must be grakn or memory, got " + sink);
+        }
+        memorySink = "memory".equals(sink);
+        sinkQueryMicros = intOption(options, "sink-query-micros", 0);
+        sinkCommitMicros = intOption(options, "sink-commit-micros", 0);
+        sinkCommitMicrosPerQuery = intOption(options, "sink-commit-micros-per-query", 0);
+        if (sinkQueryMicros < 0 || sinkCommitMicros < 0 || sinkCommitMicrosPerQuery < 0) {
+            throw new IllegalArgumentException("--sink latencies can't be negative");
+        }
+        metricsInterval = intOption(options, "metrics-interval", 10);
+        if (metricsInterval < 0) {
+            throw new IllegalArgumentException("--metrics-interval can't be negative, got " + metricsInterval);
+        }
+        String metricsOutOption = options.remove("metrics-out");
+        // an empty --metrics-out= turns the dump off
+        metricsOut = metricsOutOption == null ? "load-metrics.json" : metricsOutOption.isEmpty() ? null : metricsOutOption;
+        checkpoint = options.remove("checkpoint");
+        preprocess = options.remove("preprocess");
+        table = options.remove("table");
+        if (preprocess != null && table != null) {
+            throw new IllegalArgumentException("--preprocess writes a table and stops, so it can't be given with --table");
+        }
+        generate = options.remove("generate");
+        replay = options.remove("replay");
+        if (generate != null && (preprocess != null || replay != null)) {
+            throw new IllegalArgumentException("--generate writes queries and stops, so it can't be given with --preprocess or --replay");
+        }
+        if (replay != null && (preprocess != null || table != null)) {
+            throw new IllegalArgumentException("--replay reads no trade data, so it can't be given with --preprocess or --table");
+        }
+        // by default a shard per reader, so no two readers write into the same file
+        shards = intOption(options, "shards", readers);
+        if (shards < 1) {
+            throw new IllegalArgumentException("--shards must be at least 1, got " + shards);
+        }
+        resume = booleanOption(options, "resume");
+        if (replay != null && (resume || options.containsKey("delta"))) {
+            throw new IllegalArgumentException("--replay has no checkpoint or fingerprints, so it can't be given with --resume or --delta");
+        }
+        deadLetters = options.remove("dead-letters");
+        delta = options.remove("delta");
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("--batch-size must be at least 1, got " + batchSize);
+        }
+        maxBatchSize = intOption(options, "max-batch-size", adaptive ? 10 * batchSize : batchSize);
+        if (maxBatchSize < batchSize) {
+            throw new IllegalArgumentException("--max-batch-size can't be below --batch-size, got " + maxBatchSize);
+        }
+        // every recognised option has been removed by now, so anything left over is a typo
+        if (!options.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options: " + options.keySet());
+        }
+    }
+
+    static LoaderConfig fromArgs(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+            int split = arg.indexOf('=');
+            if (split < 0) {
+                // bare flags are switches
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, split), arg.substring(split + 1));
+            }
+        }
+        return new LoaderConfig(options);
+    }
+
+    private static String stringOption(Map<String, String> options, String name, String defaultValue) {
+        String value = options.remove(name);
+        return value != null ? value : defaultValue;
+    }
+
+    private static boolean booleanOption(Map<String, String> options, String name) {
+        String value = options.remove(name);
+        return value != null && Boolean.parseBoolean(value);
+    }
+
+    private static long longOption(Map<String, String> options, String name, long defaultValue) {
+        String value = options.remove(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("--" + name + " expects an integer, got " + value, e);
+        }
+    }
+
+    private static int intOption(Map<String, String> options, String name, int defaultValue) {
+        String value = options.remove(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("--" + name + " expects an integer, got " + value, e);
+        }
+    }
+}
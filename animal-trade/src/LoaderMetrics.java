@@ -0,0 +1,326 @@
+package grakn.examples.animaltrade;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/*
+ * What the loader is doing and how fast: latency histograms for each stage of a row, per query class,
+ * counts of rows read and committed, transactions in flight and how many concept id lookups find an id
+ *
+ * Recording is cheap and safe from any thread. While the load runs a one line summary is printed every so often,
+ * and at the end everything can be written out as JSON or CSV
+ */
+class LoaderMetrics {
+
+    enum Stage {
+        PARSE("parse"), BUILD("build"), CHECK("check"), INSERT("insert"), COMMIT("commit"),
+        // waiting for a transaction from a session pool, recorded per keyspace rather than per query class
+        LEASE("lease");
+
+        final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    // 3 significant digits, so each percentile is within 0.1% of the true value
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private static final ClassValue<String> QUERY_CLASS_NAMES = new ClassValue<String>() {
+        @Override
+        protected String computeValue(Class<?> type) {
+            return type.getSimpleName();
+        }
+    };
+
+    private final long startNanos = System.nanoTime();
+    // stage, then query class, to latency in nanoseconds
+    private final Map<Stage, ConcurrentMap<String, Histogram>> latencies = new TreeMap<>();
+    private final ConcurrentMap<String, LongAdder> unmatchedInserts = new ConcurrentHashMap<>();
+    private final LongAdder rowsRead = new LongAdder();
+    private final LongAdder rowsCommitted = new LongAdder();
+    private final LongAdder commitsRecovered = new LongAdder();
+    private final LongAdder batchesSplit = new LongAdder();
+    private final LongAdder rowsAbandoned = new LongAdder();
+    // why the latest batch failed, and what the last summary said, so each summary only repeats a new reason
+    private volatile String lastFailure;
+    private String reportedFailure;
+    private final AtomicInteger transactionsInFlight = new AtomicInteger();
+    private final AtomicInteger maxTransactionsInFlight = new AtomicInteger();
+    private final Map<String, ConceptIndex> indexes = new TreeMap<>();
+    private final Map<String, LongSupplier> gauges = new TreeMap<>();
+    private final BatchStatistics batches = new BatchStatistics();
+    private ScheduledExecutorService reporter;
+    // rows committed and time at the last summary, for the rate since then
+    private long lastCommitted = 0;
+    private long lastReportNanos = startNanos;
+
+    LoaderMetrics() {
+        for (Stage stage : Stage.values()) {
+            latencies.put(stage, new ConcurrentHashMap<>());
+        }
+    }
+
+    // the name latencies of a query are recorded under, without working it out every time
+    static String queryClass(Object query) {
+        return QUERY_CLASS_NAMES.get(query.getClass());
+    }
+
+    void record(Stage stage, String queryClass, long nanos) {
+        latencies.get(stage).computeIfAbsent(queryClass, name -> new ConcurrentHistogram(SIGNIFICANT_DIGITS)).recordValue(nanos);
+    }
+
+    // an insert that matched nothing, eg. because a country code is missing from the country list
+    void recordUnmatched(String queryClass) {
+        unmatchedInserts.computeIfAbsent(queryClass, name -> new LongAdder()).increment();
+    }
+
+    void rowRead() {
+        rowsRead.increment();
+    }
+
+    void rowsCommitted(int rows) {
+        rowsCommitted.add(rows);
+    }
+
+    // a commit that failed, but was found to have gone through
+    void recordCommitRecovered() {
+        commitsRecovered.increment();
+    }
+
+    // a batch that failed to commit and is retried as two halves, and why it failed
+    void recordBatchSplit(String failure) {
+        batchesSplit.increment();
+        lastFailure = failure;
+    }
+
+    // a single row that failed every attempt to commit it
+    void recordRowAbandoned() {
+        rowsAbandoned.increment();
+    }
+
+    void transactionOpened() {
+        int inFlight = transactionsInFlight.incrementAndGet();
+        maxTransactionsInFlight.accumulateAndGet(inFlight, Math::max);
+    }
+
+    void transactionClosed() {
+        transactionsInFlight.decrementAndGet();
+    }
+
+    BatchStatistics batches() {
+        return batches;
+    }
+
+    synchronized void registerIndex(String keyspace, ConceptIndex index) {
+        indexes.put(keyspace, index);
+    }
+
+    /*
+     * A value to sample in every summary and in the final dump, eg. a queue depth or a tuned setting
+     */
+    synchronized void registerGauge(String name, LongSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /*
+     * Prints a summary line every `intervalSeconds` until `stop()`
+     */
+    synchronized void startReporting(int intervalSeconds) {
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "loader-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> System.out.println(summary()), intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    synchronized void stop() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+    }
+
+    /*
+     * One line: rows so far and the rate since the last summary, transactions in flight, concept index hit rate,
+     * batches split and rows given up on after failing to commit, with the latest reason if it is new, and the median
+     * and 99th percentile of inserts and commits
+     */
+    synchronized String summary() {
+        long now = System.nanoTime();
+        long committed = rowsCommitted.sum();
+        double seconds = (now - lastReportNanos) / 1e9;
+        double rate = seconds > 0 ? (committed - lastCommitted) / seconds : 0;
+        lastCommitted = committed;
+        lastReportNanos = now;
+
+        StringBuilder line = new StringBuilder();
+        line.append(String.format(Locale.ROOT, "[%.0fs] read %d, committed %d rows (%.0f/s), %d tx in flight",
+                (now - startNanos) / 1e9, rowsRead.sum(), committed, rate, transactionsInFlight.get()));
+        if (!indexes.isEmpty()) {
+            line.append(String.format(Locale.ROOT, ", index %.1f%% hits", indexHitRate()));
+        }
+        long split = batchesSplit.sum();
+        if (split > 0) {
+            line.append(", ").append(split).append(" batches split");
+            String failure = lastFailure;
+            if (failure != null && !failure.equals(reportedFailure)) {
+                line.append(" (latest: ").append(failure).append(')');
+                reportedFailure = failure;
+            }
+        }
+        long abandoned = rowsAbandoned.sum();
+        if (abandoned > 0) {
+            line.append(", ").append(abandoned).append(" rows given up on");
+        }
+        for (Stage stage : new Stage[]{Stage.INSERT, Stage.COMMIT}) {
+            Histogram all = combined(stage);
+            if (all.getTotalCount() > 0) {
+                line.append(String.format(Locale.ROOT, ", %s p50 %.2fms p99 %.2fms", stage.label,
+                        all.getValueAtPercentile(50) / 1e6, all.getValueAtPercentile(99) / 1e6));
+            }
+        }
+        gauges.forEach((name, gauge) -> line.append(", ").append(name).append(' ').append(gauge.getAsLong()));
+        return line.toString();
+    }
+
+    private double indexHitRate() {
+        long hits = 0;
+        long lookups = 0;
+        for (ConceptIndex index : indexes.values()) {
+            hits += index.hits();
+            lookups += index.hits() + index.misses();
+        }
+        return lookups > 0 ? 100.0 * hits / lookups : 0;
+    }
+
+    private Histogram combined(Stage stage) {
+        Histogram all = new Histogram(SIGNIFICANT_DIGITS);
+        latencies.get(stage).values().forEach(histogram -> all.add(histogram.copy()));
+        return all;
+    }
+
+    /*
+     * Writes everything recorded, as CSV if the file name ends in .csv and JSON otherwise
+     */
+    synchronized void write(Path path) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+             PrintWriter out = new PrintWriter(writer)) {
+            if (path.getFileName().toString().endsWith(".csv")) {
+                writeCsv(out);
+            } else {
+                writeJson(out);
+            }
+        }
+    }
+
+    private void writeCsv(PrintWriter out) {
+        out.println("metric,query,count,mean_us,p50_us,p90_us,p99_us,p999_us,max_us");
+        for (Map.Entry<Stage, ConcurrentMap<String, Histogram>> stage : latencies.entrySet()) {
+            for (Map.Entry<String, Histogram> query : new TreeMap<>(stage.getValue()).entrySet()) {
+                Histogram histogram = query.getValue().copy();
+                out.printf(Locale.ROOT, "%s,%s,%d,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f%n", stage.getKey().label, query.getKey(),
+                        histogram.getTotalCount(), histogram.getMean() / 1e3, histogram.getValueAtPercentile(50) / 1e3,
+                        histogram.getValueAtPercentile(90) / 1e3, histogram.getValueAtPercentile(99) / 1e3,
+                        histogram.getValueAtPercentile(99.9) / 1e3, histogram.getMaxValue() / 1e3);
+            }
+        }
+        // single values only fill in the count
+        out.printf("rows-read,,%d,,,,,,%n", rowsRead.sum());
+        out.printf("rows-committed,,%d,,,,,,%n", rowsCommitted.sum());
+        out.printf("max-transactions-in-flight,,%d,,,,,,%n", maxTransactionsInFlight.get());
+        out.printf("commits-recovered,,%d,,,,,,%n", commitsRecovered.sum());
+        out.printf("batches-split,,%d,,,,,,%n", batchesSplit.sum());
+        out.printf("rows-abandoned,,%d,,,,,,%n", rowsAbandoned.sum());
+        new TreeMap<>(unmatchedInserts).forEach((query, count) -> out.printf("unmatched-inserts,%s,%d,,,,,,%n", query, count.sum()));
+        indexes.forEach((keyspace, index) -> {
+            out.printf("index-hits,%s,%d,,,,,,%n", keyspace, index.hits());
+            out.printf("index-misses,%s,%d,,,,,,%n", keyspace, index.misses());
+        });
+        gauges.forEach((name, gauge) -> out.printf("%s,,%d,,,,,,%n", name, gauge.getAsLong()));
+    }
+
+    private void writeJson(PrintWriter out) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        out.println("{");
+        out.printf(Locale.ROOT, "  \"elapsedSeconds\": %.3f,%n", seconds);
+        out.printf("  \"rowsRead\": %d,%n", rowsRead.sum());
+        out.printf("  \"rowsCommitted\": %d,%n", rowsCommitted.sum());
+        out.printf(Locale.ROOT, "  \"rowsPerSecond\": %.1f,%n", seconds > 0 ? rowsCommitted.sum() / seconds : 0);
+        out.printf("  \"maxTransactionsInFlight\": %d,%n", maxTransactionsInFlight.get());
+        out.printf("  \"commitsRecovered\": %d,%n", commitsRecovered.sum());
+        out.printf("  \"batchesSplit\": %d,%n", batchesSplit.sum());
+        out.printf("  \"rowsAbandoned\": %d,%n", rowsAbandoned.sum());
+
+        out.println("  \"indexes\": {");
+        String separator = "";
+        for (Map.Entry<String, ConceptIndex> index : indexes.entrySet()) {
+            out.printf("%s    \"%s\": {\"hits\": %d, \"misses\": %d}", separator, index.getKey(),
+                    index.getValue().hits(), index.getValue().misses());
+            separator = ",\n";
+        }
+        out.println();
+        out.println("  },");
+
+        out.println("  \"gauges\": {");
+        separator = "";
+        for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+            out.printf("%s    \"%s\": %d", separator, gauge.getKey(), gauge.getValue().getAsLong());
+            separator = ",\n";
+        }
+        out.println();
+        out.println("  },");
+
+        out.println("  \"unmatchedInserts\": {");
+        separator = "";
+        for (Map.Entry<String, LongAdder> unmatched : new TreeMap<>(unmatchedInserts).entrySet()) {
+            out.printf("%s    \"%s\": %d", separator, unmatched.getKey(), unmatched.getValue().sum());
+            separator = ",\n";
+        }
+        out.println();
+        out.println("  },");
+
+        out.println("  \"latencyMicros\": {");
+        String stageSeparator = "";
+        for (Map.Entry<Stage, ConcurrentMap<String, Histogram>> stage : latencies.entrySet()) {
+            out.printf("%s    \"%s\": {%n", stageSeparator, stage.getKey().label);
+            separator = "";
+            for (Map.Entry<String, Histogram> query : new TreeMap<>(stage.getValue()).entrySet()) {
+                Histogram histogram = query.getValue().copy();
+                out.printf(Locale.ROOT, "%s      \"%s\": {\"count\": %d, \"mean\": %.1f, \"p50\": %.1f, \"p90\": %.1f, "
+                                + "\"p99\": %.1f, \"p999\": %.1f, \"max\": %.1f}",
+                        separator, query.getKey(), histogram.getTotalCount(), histogram.getMean() / 1e3,
+                        histogram.getValueAtPercentile(50) / 1e3, histogram.getValueAtPercentile(90) / 1e3,
+                        histogram.getValueAtPercentile(99) / 1e3, histogram.getValueAtPercentile(99.9) / 1e3,
+                        histogram.getMaxValue() / 1e3);
+                separator = ",\n";
+            }
+            out.println();
+            out.print("    }");
+            stageSeparator = ",\n";
+        }
+        out.println();
+        out.println("  }");
+        out.println("}");
+    }
+}
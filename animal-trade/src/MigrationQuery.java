@@ -1,6 +1,10 @@
 package grakn.examples.animaltrade;
 
 
+import graql.lang.query.GraqlInsert;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -13,13 +17,45 @@ void (?) insert1(Map<String, String> line) {
 
 public abstract class MigrationQuery {
 
+    // these lookups run for every row, so they share immutable tables rather than allocating each time
+
+    private static final Map<String, Long> APPENDIX_NUMBERS;
+    static {
+        Map<String, Long> appendixNumbers = new HashMap<>();
+        appendixNumbers.put("I", 1L);
+        appendixNumbers.put("II", 2L);
+        appendixNumbers.put("III", 3L);
+        APPENDIX_NUMBERS = Collections.unmodifiableMap(appendixNumbers);
+    }
+
+    // CITES trade records start in 1975, this comfortably covers every year in the data
+    private static final int FIRST_CACHED_YEAR = 1970;
+    private static final LocalDateTime[] YEAR_STARTS = new LocalDateTime[150];
+    static {
+        for (int i = 0; i < YEAR_STARTS.length; i++) {
+            YEAR_STARTS[i] = LocalDateTime.of(FIRST_CACHED_YEAR + i, 1, 1, 0, 0);
+        }
+    }
 
-    Map<String, String> appendixMapping() {
-        Map<String, String> appendixMapping = new HashMap<>();
-        appendixMapping.put("I", "1");
-        appendixMapping.put("II", "2");
-        appendixMapping.put("III", "3");
-        return appendixMapping;
+    static long appendixNumber(String appendix) {
+        Long number = APPENDIX_NUMBERS.get(appendix);
+        if (number == null) {
+            throw new IllegalArgumentException("Unknown CITES appendix: " + appendix);
+        }
+        return number;
+    }
+
+    static boolean isAppendix(String appendix) {
+        return APPENDIX_NUMBERS.containsKey(appendix);
+    }
+
+    // the first instant of a year, which is how a year is stored as a date
+    static LocalDateTime yearStart(int year) {
+        int index = year - FIRST_CACHED_YEAR;
+        if (index >= 0 && index < YEAR_STARTS.length) {
+            return YEAR_STARTS[index];
+        }
+        return LocalDateTime.of(year, 1, 1, 0, 0);
     }
 
     // instantiate with a user function
@@ -27,7 +63,12 @@ public abstract class MigrationQuery {
     // idea is that they write a query either as a string
     // which can
 
-    abstract String getQuery(Map<String, String> line);
+    abstract GraqlInsert getQuery(Map<String, String> line);
+
+    // the same insert, free to match what it refers to by the concept ids in `index`, which is for one keyspace
+    GraqlInsert getQuery(Map<String, String> line, ConceptIndex index) {
+        return getQuery(line);
+    }
 
 }
 
@@ -0,0 +1,210 @@
+package grakn.examples.animaltrade;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+
+/*
+ * Reads a large CSV on several threads at once: the file is split into chunks on record boundaries
+ * and each chunk is parsed by its own CSVRowReader
+ *
+ * A compressed CSV can't be read from an offset, so it is decompressed as a stream (see CompressedInput) and split into
+ * blocks as it is read, which are parsed on the threads as above. Offsets are into the CSV as decompressed, so ranges
+ * mean the same for a file whether it is compressed or not
+ *
+ * Rows are handed to the handler on the parsing thread, so whatever the handler does per row -- translating codes,
+ * building queries, queueing for the loader -- is spread over the threads too. Rows from different chunks
+ * arrive in no particular order
+ */
+class ParallelCSVReader {
+
+    interface RowHandler {
+        // the row belongs to the calling thread's reader, snapshot it to keep it
+        void handle(CSVRow row) throws InterruptedException;
+    }
+
+    // the most of a compressed CSV held in memory per block, since every block waiting to be parsed is
+    private static final long MAX_STREAM_BLOCK_SIZE = 8L << 20;
+
+    private final Path csvFile;
+    private final char separator;
+    private final Charset charset;
+    private final int threads;
+    private final long chunkSize;
+
+    ParallelCSVReader(Path csvFile, char separator, Charset charset, int threads, long chunkSize) {
+        this.csvFile = csvFile;
+        this.separator = separator;
+        this.charset = charset;
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+    }
+
+    /*
+     * Reads every record, returning once all of them have been handled
+     */
+    void read(RowHandler handler) throws IOException, InterruptedException {
+        read(handler, data -> Collections.singletonList(data));
+    }
+
+    /*
+     * Reads only the parts of the file chosen by `ranges`, which is given the range from the end of the header
+     * to the end of the file and must return ranges within it, in order, that start and end on record boundaries
+     * Where the file ends isn't known before a compressed file has been read, so it is given as Long.MAX_VALUE
+     */
+    void read(RowHandler handler, Function<CSVChunkSplitter.Chunk, List<CSVChunkSplitter.Chunk>> ranges)
+            throws IOException, InterruptedException {
+        read(handler, ranges, nanos -> {
+        });
+    }
+
+    /*
+     * As above, also passing `parseNanos` the time taken to parse each row, not counting the handler
+     */
+    void read(RowHandler handler, Function<CSVChunkSplitter.Chunk, List<CSVChunkSplitter.Chunk>> ranges,
+              LongConsumer parseNanos) throws IOException, InterruptedException {
+        if (CompressedInput.isCompressed(csvFile)) {
+            readStream(handler, ranges, parseNanos);
+            return;
+        }
+        try (FileChannel file = FileChannel.open(csvFile, StandardOpenOption.READ)) {
+            String[] header;
+            long dataStart;
+            CSVChunkSplitter.Chunk wholeFile = new CSVChunkSplitter.Chunk(0, file.size());
+            try (CSVRowReader headerReader = new CSVRowReader(CSVChunkSplitter.channel(file, wholeFile), separator, charset, 1 << 16)) {
+                header = headerReader.header();
+                dataStart = headerReader.offset();
+            }
+            List<CSVChunkSplitter.Chunk> chunks = new ArrayList<>();
+            for (CSVChunkSplitter.Chunk range : ranges.apply(new CSVChunkSplitter.Chunk(dataStart, file.size()))) {
+                chunks.addAll(CSVChunkSplitter.split(file, range.start, range.end, chunkSize, separator));
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(chunks.size(), 1)));
+            try {
+                List<Future<?>> parsers = new ArrayList<>();
+                for (CSVChunkSplitter.Chunk chunk : chunks) {
+                    parsers.add(executor.submit(() -> {
+                        readChunk(CSVChunkSplitter.channel(file, chunk), chunk.start, header, handler, parseNanos);
+                        return null;
+                    }));
+                }
+                for (Future<?> parser : parsers) {
+                    await(parser);
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /*
+     * Decompresses the file on threads of its own while this one splits what comes out into blocks, and the blocks
+     * are parsed on the reader threads; once every reader is busy and a block is waiting, splitting waits too
+     */
+    private void readStream(RowHandler handler, Function<CSVChunkSplitter.Chunk, List<CSVChunkSplitter.Chunk>> ranges,
+                            LongConsumer parseNanos) throws IOException, InterruptedException {
+        try (ReadableByteChannel input = CompressedInput.open(csvFile, threads)) {
+            CSVChunkSplitter.StreamSplitter splitter = new CSVChunkSplitter.StreamSplitter(input, separator);
+            // the header is the first record
+            CSVChunkSplitter.Block headerBlock = splitter.next(1);
+            if (headerBlock == null) {
+                throw new IOException(csvFile + " has no header");
+            }
+            String[] header;
+            try (CSVRowReader headerReader = new CSVRowReader(
+                    headerBlock.channel(new CSVChunkSplitter.Chunk(0, headerBlock.end())), separator, charset, 1 << 16)) {
+                header = headerReader.header();
+            }
+            List<CSVChunkSplitter.Chunk> wanted = ranges.apply(new CSVChunkSplitter.Chunk(headerBlock.end(), Long.MAX_VALUE));
+
+            int blockSize = (int) Math.min(chunkSize, MAX_STREAM_BLOCK_SIZE);
+            Semaphore waiting = new Semaphore(threads + 1);
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<?>> parsers = new ArrayList<>();
+                int range = 0;
+                CSVChunkSplitter.Block block;
+                while (range < wanted.size() && (block = splitter.next(blockSize)) != null) {
+                    // the ranges this block has rows of, the last of which may go on into the next block
+                    while (range < wanted.size() && wanted.get(range).end <= block.start) {
+                        range++;
+                    }
+                    List<CSVChunkSplitter.Chunk> parts = new ArrayList<>();
+                    for (int i = range; i < wanted.size() && wanted.get(i).start < block.end(); i++) {
+                        parts.add(wanted.get(i));
+                    }
+                    if (parts.isEmpty()) {
+                        continue;
+                    }
+                    waiting.acquire();
+                    CSVChunkSplitter.Block parsed = block;
+                    parsers.add(executor.submit(() -> {
+                        try {
+                            for (CSVChunkSplitter.Chunk part : parts) {
+                                readChunk(parsed.channel(part), Math.max(part.start, parsed.start), header, handler, parseNanos);
+                            }
+                        } finally {
+                            waiting.release();
+                        }
+                        return null;
+                    }));
+                    // a block that failed stops the read now, rather than once the whole file is decompressed
+                    for (Future<?> parser : parsers) {
+                        if (parser.isDone()) {
+                            await(parser);
+                        }
+                    }
+                    parsers.removeIf(Future::isDone);
+                }
+                for (Future<?> parser : parsers) {
+                    await(parser);
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private void readChunk(ReadableByteChannel channel, long offset, String[] header, RowHandler handler,
+                           LongConsumer parseNanos) throws IOException, InterruptedException {
+        try (CSVRowReader reader = new CSVRowReader(channel, offset, header,
+                separator, charset, CSVRowReader.DEFAULT_BUFFER_SIZE)) {
+            long start = System.nanoTime();
+            while (reader.next()) {
+                parseNanos.accept(System.nanoTime() - start);
+                handler.handle(reader.row());
+                start = System.nanoTime();
+            }
+        }
+    }
+
+    private static void await(Future<?> parser) throws IOException, InterruptedException {
+        try {
+            parser.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException("Failed to read CSV chunk", cause);
+        }
+    }
+}
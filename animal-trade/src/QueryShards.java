@@ -0,0 +1,190 @@
+package grakn.examples.animaltrade;
+
+import graql.lang.query.GraqlInsert;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ * A load written out as gzipped Graql, one insert query per line, for replaying into any number of keyspaces later
+ *
+ * The countries, continents and taxa go into one file per level, `level-N-<query class>.gql.gz`, replayed in order,
+ * each level once the one before it is committed. Their inserts match the level above by name, as nothing about the
+ * keyspace is known when they are written. The facts go into shards per keyspace of the split,
+ * `facts-<keyspace>-NNN.gql.gz`, which can be replayed in any order and in parallel
+ *
+ * Fact queries are written from the reader threads. Each thread is given a shard of its own, as long as there are as
+ * many shards as readers, so they compress in parallel and rarely wait for one another
+ */
+class QueryShards implements AutoCloseable {
+
+    private static final String SUFFIX = ".gql.gz";
+    private static final String LEVEL_PREFIX = "level-";
+    private static final String FACTS_PREFIX = "facts-";
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path directory;
+    private final int shards;
+    // keyspace, then shard
+    private final List<Writer[]> facts = new ArrayList<>();
+    private final AtomicLong factsWritten = new AtomicLong();
+    private final AtomicInteger nextShard = new AtomicInteger();
+    private final ThreadLocal<Integer> threadShard;
+    private int levelsWritten;
+
+    /*
+     * Starts writing into `directory`, which must not hold shards already, with `shards` files for each keyspace
+     */
+    QueryShards(Path directory, List<String> keyspaceNames, int shards) throws IOException {
+        if (shards < 1) {
+            throw new IllegalArgumentException("There must be at least one shard per keyspace, got " + shards);
+        }
+        Files.createDirectories(directory);
+        if (!list(directory, "").isEmpty()) {
+            // replaying a mix of two generations would load some of their rows twice
+            throw new IOException(directory + " already holds generated queries");
+        }
+        this.directory = directory;
+        this.shards = shards;
+        this.threadShard = ThreadLocal.withInitial(() -> nextShard.getAndIncrement() % shards);
+        try {
+            for (String name : keyspaceNames) {
+                Writer[] writers = new Writer[shards];
+                facts.add(writers);
+                for (int shard = 0; shard < shards; shard++) {
+                    writers[shard] = writer(directory.resolve(String.format("%s%s-%03d%s", FACTS_PREFIX, name, shard, SUFFIX)));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private static Writer writer(Path path) throws IOException {
+        return new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(path), BUFFER_SIZE), StandardCharsets.UTF_8);
+    }
+
+    /*
+     * Writes the next level of the hierarchy, eg. every country, as inserted by `queryClass`
+     */
+    void level(String queryClass, List<GraqlInsert> inserts) throws IOException {
+        Path path = directory.resolve(LEVEL_PREFIX + levelsWritten++ + "-" + queryClass + SUFFIX);
+        try (Writer out = writer(path)) {
+            for (GraqlInsert insert : inserts) {
+                write(out, insert);
+            }
+        }
+    }
+
+    /*
+     * Writes a fact for the keyspace at the given index into the calling thread's shard
+     */
+    void fact(int keyspace, GraqlInsert insert) {
+        Writer out = facts.get(keyspace)[threadShard.get()];
+        try {
+            synchronized (out) {
+                write(out, insert);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write a query into " + directory, e);
+        }
+        factsWritten.incrementAndGet();
+    }
+
+    // the strings in a query are escaped, so a line break in one is only formatting
+    private static void write(Writer out, GraqlInsert insert) throws IOException {
+        out.write(insert.toString().replace('\n', ' '));
+        out.write('\n');
+    }
+
+    long factsWritten() {
+        return factsWritten.get();
+    }
+
+    int shards() {
+        return shards;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Writer[] writers : facts) {
+            for (Writer out : writers) {
+                if (out == null) {
+                    continue;
+                }
+                try {
+                    synchronized (out) {
+                        out.close();
+                    }
+                } catch (IOException e) {
+                    failure = failure == null ? e : failure;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // the level files in `directory`, in the order they are to be loaded
+    static List<Path> levels(Path directory) throws IOException {
+        List<Path> levels = list(directory, LEVEL_PREFIX);
+        levels.sort((a, b) -> Integer.compare(levelNumber(a), levelNumber(b)));
+        return levels;
+    }
+
+    private static int levelNumber(Path level) {
+        String name = level.getFileName().toString();
+        return Integer.parseInt(name.substring(LEVEL_PREFIX.length(), name.indexOf('-', LEVEL_PREFIX.length())));
+    }
+
+    // what inserted the rows of a level file, for recording latencies under
+    static String levelQueryClass(Path level) {
+        String name = level.getFileName().toString();
+        return name.substring(name.indexOf('-', LEVEL_PREFIX.length()) + 1, name.length() - SUFFIX.length());
+    }
+
+    // the fact shards for the keyspace of the split named `keyspaceName`
+    static List<Path> facts(Path directory, String keyspaceName) throws IOException {
+        String prefix = FACTS_PREFIX + keyspaceName + "-";
+        List<Path> shards = list(directory, prefix);
+        // not those of another keyspace whose name starts with this one's, eg. train-2 for train
+        shards.removeIf(shard -> !shard.getFileName().toString().substring(prefix.length()).matches("[0-9]+\\.gql\\.gz"));
+        Collections.sort(shards);
+        if (shards.isEmpty()) {
+            throw new IOException(directory + " has no queries for " + keyspaceName
+                    + ", they must be generated with the split they are replayed with");
+        }
+        return shards;
+    }
+
+    private static List<Path> list(Path directory, String prefix) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*" + SUFFIX)) {
+            files.forEach(paths::add);
+        }
+        return paths;
+    }
+
+    static BufferedReader open(Path shard) throws IOException {
+        return new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(shard), BUFFER_SIZE), StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+}
@@ -0,0 +1,200 @@
+package grakn.examples.animaltrade;
+
+import graql.lang.query.GraqlGet;
+import graql.lang.query.GraqlInsert;
+import graql.lang.query.GraqlQuery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/*
+ * An in-memory stand-in for Grakn, for measuring the loader on its own
+ *
+ * Nothing is evaluated: every insert gets one answer, as though everything it matches exists, with a new made up
+ * concept id, and nothing exists beforehand, so singletons are deduplicated only by the loader itself. What each
+ * keyspace was sent is counted, and optionally kept, once its transaction commits. Queries and commits can be made to
+ * take a while, to stand in for the server's work and the round trip to it
+ */
+class RecordingSink implements Sink {
+
+    private final long queryNanos;
+    private final long commitNanos;
+    private final long commitNanosPerQuery;
+    private final boolean keepQueries;
+    private final Map<String, Keyspace> keyspaces = new TreeMap<>();
+    // made up concept ids for what is inserted, unique across keyspaces
+    private final AtomicLong nextConceptId = new AtomicLong();
+
+    private static class Keyspace {
+        long commits;
+        long rollbacks;
+        long inserts;
+        long definitions;
+        long existenceChecks;
+        final List<String> queries = new ArrayList<>();
+    }
+
+    /*
+     * Every query waits `queryNanos`, every commit `commitNanos` plus `commitNanosPerQuery` for each query it commits
+     * `keepQueries` keeps the text of every committed query, for comparing loads
+     */
+    RecordingSink(long queryNanos, long commitNanos, long commitNanosPerQuery, boolean keepQueries) {
+        this.queryNanos = queryNanos;
+        this.commitNanos = commitNanos;
+        this.commitNanosPerQuery = commitNanosPerQuery;
+        this.keepQueries = keepQueries;
+    }
+
+    @Override
+    public Sink.Session session(String keyspace) {
+        Keyspace recorded;
+        synchronized (keyspaces) {
+            recorded = keyspaces.computeIfAbsent(keyspace, name -> new Keyspace());
+        }
+        return new Sink.Session() {
+            @Override
+            public Sink.Transaction write() {
+                return new Transaction(recorded, true);
+            }
+
+            @Override
+            public Sink.Transaction read() {
+                return new Transaction(recorded, false);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+    }
+
+    // the committed queries of a keyspace in commit order, if they were kept
+    List<String> committedQueries(String keyspace) {
+        synchronized (keyspaces) {
+            Keyspace recorded = keyspaces.get(keyspace);
+            if (recorded == null) {
+                return Collections.emptyList();
+            }
+            synchronized (recorded) {
+                return new ArrayList<>(recorded.queries);
+            }
+        }
+    }
+
+    String report() {
+        StringBuilder report = new StringBuilder();
+        synchronized (keyspaces) {
+            for (Map.Entry<String, Keyspace> entry : keyspaces.entrySet()) {
+                Keyspace recorded = entry.getValue();
+                synchronized (recorded) {
+                    report.append(String.format("%s: %d commits, %d rolled back, %d inserts, %d definitions, %d existence checks\n",
+                            entry.getKey(), recorded.commits, recorded.rollbacks, recorded.inserts, recorded.definitions,
+                            recorded.existenceChecks));
+                }
+            }
+        }
+        return report.toString();
+    }
+
+    private static void simulate(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        // parking can end early, so keep going until the time is up
+        for (long remaining = nanos; remaining > 0; remaining = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private class Transaction implements Sink.Transaction {
+
+        private final Keyspace keyspace;
+        private final boolean write;
+        private final List<String> queries = new ArrayList<>();
+        private long inserts;
+        private long definitions;
+        private long existenceChecks;
+        private boolean committed = false;
+
+        Transaction(Keyspace keyspace, boolean write) {
+            this.keyspace = keyspace;
+            this.write = write;
+        }
+
+        private void record(GraqlQuery query) {
+            simulate(queryNanos);
+            if (keepQueries) {
+                queries.add(query.toString());
+            }
+        }
+
+        @Override
+        public void define(GraqlQuery query) {
+            record(query);
+            definitions++;
+        }
+
+        @Override
+        public int insert(GraqlInsert query) {
+            record(query);
+            inserts++;
+            return 1;
+        }
+
+        @Override
+        public List<String> insert(GraqlInsert query, String variable) {
+            insert(query);
+            return Collections.singletonList("V" + nextConceptId.incrementAndGet());
+        }
+
+        @Override
+        public boolean exists(GraqlGet query) {
+            simulate(queryNanos);
+            existenceChecks++;
+            return false;
+        }
+
+        @Override
+        public Stream<String> values(GraqlGet query, String variable) {
+            simulate(queryNanos);
+            return Stream.empty();
+        }
+
+        @Override
+        public Map<String, String> conceptIds(GraqlGet query, String keyVariable, String conceptVariable) {
+            simulate(queryNanos);
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public void commit() {
+            simulate(commitNanos + commitNanosPerQuery * (inserts + definitions));
+            synchronized (keyspace) {
+                keyspace.commits++;
+                keyspace.inserts += inserts;
+                keyspace.definitions += definitions;
+                keyspace.queries.addAll(queries);
+            }
+            committed = true;
+        }
+
+        @Override
+        public void close() {
+            // checks are work done whether or not the transaction commits
+            synchronized (keyspace) {
+                keyspace.existenceChecks += existenceChecks;
+                if (write && !committed) {
+                    keyspace.rollbacks++;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package grakn.examples.animaltrade;
+
+import graql.lang.query.GraqlInsert;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Loads a small reference CSV, like the country to continent mapping, in a handful of large transactions
+ *
+ * The whole file is read up front and deduplicated in memory, one level per query (continents, then countries),
+ * so every continent is inserted once however many countries it has. What the keyspace already holds is asked for
+ * with one query per level rather than an existence check per row, and the rest is inserted level by level
+ * Any CSV whose rows map onto singleton queries can be loaded this way
+ */
+class ReferenceDataLoader {
+
+    static final int DEFAULT_BATCH_SIZE = 1_000;
+
+    private final String name;
+    private final SingletonInsertMigrationQuery[] levelQueries;
+    // for each level, the first line with each distinct identifier
+    private final List<Map<String, Map<String, String>>> levels = new ArrayList<>();
+
+    private ReferenceDataLoader(String name, MigrationQuery[] levelQueries) {
+        this.name = name;
+        this.levelQueries = new SingletonInsertMigrationQuery[levelQueries.length];
+        for (int level = 0; level < levelQueries.length; level++) {
+            this.levelQueries[level] = (SingletonInsertMigrationQuery) levelQueries[level];
+            levels.add(new LinkedHashMap<>());
+        }
+    }
+
+    /*
+     * `levelQueries` are in hierarchy order, each one's rows able to refer to those of the levels before it
+     */
+    static ReferenceDataLoader read(String name, File csvFile, char separator, MigrationQuery[] levelQueries) throws IOException {
+        ReferenceDataLoader loader = new ReferenceDataLoader(name, levelQueries);
+        try (CSVIterator csv = new CSVIterator(csvFile, separator)) {
+            while (csv.hasNext()) {
+                loader.add(csv.next());
+            }
+        }
+        return loader;
+    }
+
+    private void add(Map<String, String> line) {
+        for (int level = 0; level < levelQueries.length; level++) {
+            levels.get(level).putIfAbsent(levelQueries[level].getIdentifier(line), line);
+        }
+    }
+
+    // the distinct identifiers on a level, eg. every ISO-id on the country level
+    Set<String> identifiers(int level) {
+        return Collections.unmodifiableSet(levels.get(level).keySet());
+    }
+
+    int size() {
+        return levels.stream().mapToInt(Map::size).sum();
+    }
+
+    /*
+     * `session` is only read from, to find what is already there; the inserts go through the window, every batch of
+     * a level concurrently and each level once the one before it is committed
+     */
+    void load(Sink.Session session, TransactionWindow window, int batchSize, LoaderMetrics metrics) {
+        List<Set<String>> existing = new ArrayList<>();
+        try (Sink.Transaction tx = session.read()) {
+            for (SingletonInsertMigrationQuery query : levelQueries) {
+                Set<String> identifiers = new HashSet<>();
+                tx.values(query.getExistingIdentifiersQuery(), "id").forEach(identifiers::add);
+                existing.add(identifiers);
+            }
+        }
+
+        int inserted = 0;
+        for (int level = 0; level < levelQueries.length; level++) {
+            SingletonInsertMigrationQuery query = levelQueries[level];
+            String queryClass = LoaderMetrics.queryClass(query);
+            Set<String> present = existing.get(level);
+            try (BatchLoader<Map<String, String>> loader = new BatchLoader<>(window, queryClass, batchSize,
+                    insertRowLoader(query, queryClass, metrics), metrics)) {
+                for (Map.Entry<String, Map<String, String>> row : levels.get(level).entrySet()) {
+                    if (!present.contains(row.getKey())) {
+                        loader.add(row.getValue());
+                        inserted++;
+                    }
+                }
+            }
+        }
+        System.out.printf("Loaded %s: %d inserted, %d already there\n", name, inserted, size() - inserted);
+    }
+
+    /*
+     * Writes the insert of every row into `shards`, a level at a time, for loading into a keyspace that has none of them
+     */
+    void write(QueryShards shards) throws IOException {
+        for (int level = 0; level < levelQueries.length; level++) {
+            List<GraqlInsert> inserts = new ArrayList<>();
+            for (Map<String, String> line : levels.get(level).values()) {
+                inserts.add(levelQueries[level].getQuery(line));
+            }
+            shards.level(LoaderMetrics.queryClass(levelQueries[level]), inserts);
+        }
+    }
+
+    // inserts without checking first, since every row it is given is known to be missing
+    private static BatchLoader.RowLoader<Map<String, String>> insertRowLoader(SingletonInsertMigrationQuery query, String queryClass,
+                                                                       LoaderMetrics metrics) {
+        return (line, tx) -> {
+            long start = System.nanoTime();
+            GraqlInsert insert = query.getQuery(line);
+            long built = System.nanoTime();
+            int response = tx.insert(insert);
+            metrics.record(LoaderMetrics.Stage.BUILD, queryClass, built - start);
+            metrics.record(LoaderMetrics.Stage.INSERT, queryClass, System.nanoTime() - built);
+            if (response != 1) {
+                metrics.recordUnmatched(queryClass);
+            }
+        };
+    }
+}
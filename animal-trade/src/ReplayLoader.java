@@ -0,0 +1,138 @@
+package grakn.examples.animaltrade;
+
+import graql.lang.Graql;
+import graql.lang.query.GraqlInsert;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/*
+ * Loads the queries written by QueryShards into the keyspaces of the split they were generated with
+ *
+ * There is nothing left to do but parse each query and insert it, so this measures the insert side of a load with
+ * the CSV and the query building out of the way. The levels are replayed into a keyspace in order, each committed
+ * before the next starts; the fact shards are then read in parallel and committed in batches through a FactLoader,
+ * just as the facts of a load from the trade data are
+ *
+ * Nothing is checked for before it is inserted and there is no checkpoint, so replay into fresh keyspaces: replaying
+ * into a keyspace that already has some of the queries loaded inserts them a second time
+ */
+class ReplayLoader {
+
+    private static final String FACT_QUERY_CLASS = LoaderMetrics.queryClass(DataMigrationQueries.getExchangeMigrationQuery());
+
+    private final Path directory;
+    private final KeyspaceSplit split;
+    private final List<? extends Sink.Session> sessions;
+    private final LoaderMetrics metrics;
+
+    /*
+     * `sessions` has one session for each keyspace of `split`, in the same order
+     */
+    ReplayLoader(Path directory, KeyspaceSplit split, List<? extends Sink.Session> sessions, LoaderMetrics metrics) {
+        this.directory = directory;
+        this.split = split;
+        this.sessions = sessions;
+        this.metrics = metrics;
+    }
+
+    /*
+     * Replays every level into the keyspace at the given index, `inFlight` batches of a level at a time
+     */
+    void levels(int keyspace, int inFlight, int batchSize) throws IOException {
+        List<Path> levels = QueryShards.levels(directory);
+        try (TransactionWindow window = new TransactionWindow(sessions.get(keyspace), inFlight)) {
+            for (Path level : levels) {
+                String queryClass = QueryShards.levelQueryClass(level);
+                int[] queries = {0};
+                // closing the loader commits the rest of this level before the next one starts
+                try (BatchLoader<String> loader = new BatchLoader<>(window, queryClass, batchSize, rowLoader(queryClass), metrics);
+                     BufferedReader in = QueryShards.open(level)) {
+                    readQueries(in, query -> {
+                        loader.add(query);
+                        queries[0]++;
+                    });
+                }
+                System.out.printf("Replayed %d %s queries into %s\n", queries[0], queryClass, split.keyspaces().get(keyspace));
+            }
+        }
+    }
+
+    /*
+     * Replays the facts of every keyspace at once, `readers` shards at a time, with the batch size and transactions in
+     * flight set by `controller`
+     */
+    void facts(LoadController controller, int readers) throws IOException, InterruptedException {
+        List<List<Path>> shards = new ArrayList<>();
+        for (int keyspace = 0; keyspace < split.size(); keyspace++) {
+            shards.add(QueryShards.facts(directory, split.name(keyspace)));
+        }
+        List<BatchLoader.RowLoader<String>> rowLoaders = Collections.nCopies(split.size(), rowLoader(FACT_QUERY_CLASS));
+        ExecutorService executor = Executors.newFixedThreadPool(readers);
+        try (FactLoader<String> facts = new FactLoader<>(split.keyspaces(), sessions, controller, FACT_QUERY_CLASS,
+                rowLoaders, metrics)) {
+            List<Future<?>> reads = new ArrayList<>();
+            for (int i = 0; i < shards.size(); i++) {
+                int keyspace = i;
+                for (Path shard : shards.get(keyspace)) {
+                    reads.add(executor.submit(() -> {
+                        try (BufferedReader in = QueryShards.open(shard)) {
+                            readQueries(in, query -> {
+                                metrics.rowRead();
+                                facts.submit(keyspace, query);
+                            });
+                        }
+                        return null;
+                    }));
+                }
+            }
+            for (Future<?> read : reads) {
+                try {
+                    read.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    } else if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new RuntimeException("Failed to replay a shard", e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void readQueries(BufferedReader in, Consumer<String> queries) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (!line.isEmpty()) {
+                queries.accept(line);
+            }
+        }
+    }
+
+    // parsing the query stands in for building it, and is recorded as that
+    private BatchLoader.RowLoader<String> rowLoader(String queryClass) {
+        return (query, tx) -> {
+            long start = System.nanoTime();
+            GraqlInsert insert = Graql.parse(query).asInsert();
+            long parsed = System.nanoTime();
+            int response = tx.insert(insert);
+            metrics.record(LoaderMetrics.Stage.BUILD, queryClass, parsed - start);
+            metrics.record(LoaderMetrics.Stage.INSERT, queryClass, System.nanoTime() - parsed);
+            if (response != 1) {
+                metrics.recordUnmatched(queryClass);
+            }
+        };
+    }
+}
@@ -0,0 +1,262 @@
+package grakn.examples.animaltrade;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * What a delta load needs to load only the rows that are new since the previous load of an earlier release
+ *
+ * Every row is reduced to a 64 bit fingerprint of its normalised columns: text without surrounding spaces, and the
+ * year and quantities as numbers, so "1" and "1.0" are the same quantity and a table fingerprints like its CSV
+ * The previous load's fingerprints are kept in a file, sorted, and memory mapped, so even tens of millions of them
+ * take little heap. Rows can repeat in the trade data, so the file is a multiset: a row is new when this load has
+ * seen more rows with its fingerprint than the previous one did. Fingerprints of the previous load that no row of this
+ * one claimed are the rows removed since
+ *
+ * Layout, big endian: magic, version, a hash of the header the rows had, the fingerprint count, then the fingerprints
+ */
+class RowFingerprints implements AutoCloseable {
+
+    private static final long MAGIC = 0x4349544553465031L; // CITESFP1
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8 + 4 + 8 + 8;
+
+    // compared as numbers, everything else as text
+    private static final List<String> NUMBER_COLUMNS =
+            Arrays.asList("Year", "Importer reported quantity", "Exporter reported quantity");
+
+    private final String[] header;
+    private final boolean[] numbers;
+    private final long headerHash;
+    private final FileChannel file;
+    // the previous load's, sorted, and which of them a row of this load has claimed
+    private final LongBuffer previous;
+    private final AtomicLongArray claimed;
+    private final AtomicLong unchanged = new AtomicLong();
+    private final AtomicLong added = new AtomicLong();
+    // this load's, kept per reader thread so recording one takes no lock
+    private final List<Recorded> recorded = new ArrayList<>();
+    private final ThreadLocal<Recorded> local = ThreadLocal.withInitial(() -> {
+        Recorded values = new Recorded();
+        synchronized (recorded) {
+            recorded.add(values);
+        }
+        return values;
+    });
+
+    private static class Recorded {
+        long[] values = new long[1024];
+        int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    private RowFingerprints(String[] header, FileChannel file, LongBuffer previous) {
+        this.header = header;
+        this.numbers = new boolean[header.length];
+        for (int column = 0; column < header.length; column++) {
+            numbers[column] = NUMBER_COLUMNS.contains(header[column]);
+        }
+        this.headerHash = hash(String.join(",", header), 0xcbf29ce484222325L);
+        this.file = file;
+        this.previous = previous;
+        this.claimed = new AtomicLongArray((previous.limit() + 63) / 64);
+    }
+
+    /*
+     * The fingerprints of the previous load from `path`, of rows with the given `header`
+     * If there is no file, there was no previous load, and every row is new
+     */
+    static RowFingerprints open(Path path, String[] header) throws IOException {
+        if (!Files.exists(path)) {
+            return new RowFingerprints(header, null, LongBuffer.allocate(0));
+        }
+        FileChannel file = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            if (file.size() < HEADER_BYTES) {
+                throw new IOException(path + " is not a file of row fingerprints");
+            }
+            ByteBuffer head = file.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (head.getLong() != MAGIC) {
+                throw new IOException(path + " is not a file of row fingerprints");
+            }
+            int version = head.getInt();
+            if (version != VERSION) {
+                throw new IOException(path + " is version " + version + " of the fingerprint format, expected " + VERSION);
+            }
+            long headerHash = head.getLong();
+            long count = head.getLong();
+            if (count > Integer.MAX_VALUE / Long.BYTES) {
+                throw new IOException(path + " has " + count + " fingerprints, more than can be mapped at once");
+            }
+            if (file.size() < HEADER_BYTES + count * Long.BYTES) {
+                throw new IOException(path + " is cut short, it should hold " + count + " fingerprints");
+            }
+            LongBuffer previous = file.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, count * Long.BYTES).asLongBuffer();
+            RowFingerprints fingerprints = new RowFingerprints(header, file, previous);
+            if (headerHash != fingerprints.headerHash) {
+                // every row would count as new, and be loaded a second time
+                throw new IOException(path + " was written for trade data with different columns, so its rows can't be"
+                        + " compared with these; load this release in full instead");
+            }
+            return fingerprints;
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /*
+     * The fingerprint of the row as it will be loaded, so after its codes are translated
+     */
+    long fingerprint(CSVRow row) {
+        long hash = headerHash;
+        for (int column = 0; column < header.length; column++) {
+            if (numbers[column] && !row.isEmpty(column)) {
+                double number = row.getDouble(column);
+                // -0.0 and 0.0 are the same quantity
+                long bits = Double.doubleToLongBits(number == 0 ? 0.0 : number);
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    hash = (hash ^ ((bits >>> shift) & 0xff)) * 0x100000001b3L;
+                }
+            } else {
+                String value = row.get(column);
+                if (value != null) {
+                    hash = hash(value.trim(), hash);
+                }
+            }
+            // as in CSVRow, so moving text between columns changes the fingerprint
+            hash = (hash ^ 0xff) * 0x100000001b3L;
+        }
+        // the splitmix64 finalizer, FNV alone leaves the high bits of short rows poorly mixed
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        return hash ^ (hash >>> 31);
+    }
+
+    private static long hash(String value, long hash) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            hash = (hash ^ (c & 0xff)) * 0x100000001b3L;
+            hash = (hash ^ (c >>> 8)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /*
+     * Records the fingerprint as one of this load's, and says whether the row is new: false if the previous load had
+     * a row with this fingerprint that no other row of this load has claimed yet
+     */
+    boolean isNew(long fingerprint) {
+        local.get().add(fingerprint);
+        for (int i = lowerBound(fingerprint); i < previous.limit() && previous.get(i) == fingerprint; i++) {
+            if (claim(i)) {
+                unchanged.incrementAndGet();
+                return false;
+            }
+        }
+        added.incrementAndGet();
+        return true;
+    }
+
+    private int lowerBound(long fingerprint) {
+        int low = 0;
+        int high = previous.limit();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (previous.get(middle) < fingerprint) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private boolean claim(int index) {
+        int word = index >>> 6;
+        long bit = 1L << (index & 63);
+        while (true) {
+            long bits = claimed.get(word);
+            if ((bits & bit) != 0) {
+                return false;
+            }
+            if (claimed.compareAndSet(word, bits, bits | bit)) {
+                return true;
+            }
+        }
+    }
+
+    long unchanged() {
+        return unchanged.get();
+    }
+
+    long added() {
+        return added.get();
+    }
+
+    // rows of the previous load with no row like them in this one; only known once every row has been seen
+    long removed() {
+        return previous.limit() - unchanged();
+    }
+
+    /*
+     * Writes every fingerprint recorded by this load to `path`, for the next load to compare with
+     * Only to be called once no more are being recorded, ie. the readers have finished
+     */
+    void write(Path path) throws IOException {
+        long[] all;
+        synchronized (recorded) {
+            int count = recorded.stream().mapToInt(values -> values.size).sum();
+            all = new long[count];
+            int position = 0;
+            for (Recorded values : recorded) {
+                System.arraycopy(values.values, 0, all, position, values.size);
+                position += values.size;
+            }
+        }
+        Arrays.parallelSort(all);
+
+        // written aside and moved into place, so a failure leaves the previous fingerprints as they were
+        Path written = Files.createTempFile(path.toAbsolutePath().getParent(), "fingerprints-", ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(written), 1 << 16))) {
+                out.writeLong(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(headerHash);
+                out.writeLong(all.length);
+                for (long fingerprint : all) {
+                    out.writeLong(fingerprint);
+                }
+            }
+            Files.move(written, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(written);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package grakn.examples.animaltrade;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Checks a trade row before it is loaded, for anything that would make its insert match nothing or fail outright:
+ * an importer or exporter missing from the country list, no taxon, a year or quantity that isn't a number, a record
+ * that ends before the quantity columns, an appendix that isn't I, II or III. Such a row costs a round trip for
+ * nothing, or worse fails its whole batch, so it is written to a dead letter file, with the reasons, instead of being
+ * loaded. Each is identified by where it starts: its byte offset in the CSV, once decompressed, or its index in a
+ * preprocessed table. Rows are read in chunks by several
+ * threads, so unlike an offset, a row number isn't known where the row is read
+ *
+ * Runs on the reader threads, against sets in memory, so it costs no more than reading the row did
+ * A resumed load checks the rows an interrupted run rejected again, from the parts of the data its checkpoint covers
+ * as well as those still to be loaded, and writes them to the file again; it is started afresh by every load for that
+ * reason
+ */
+class RowValidator implements AutoCloseable {
+
+    private static final String[] QUANTITY_COLUMNS = {"Importer reported quantity", "Exporter reported quantity"};
+
+    private final Set<String> countries;
+    private final String[] header;
+    private final int importer;
+    private final int exporter;
+    private final int taxon;
+    private final int year;
+    private final int appendix;
+    private final int[] quantities;
+    private final Path deadLetters;
+    private final Writer out;
+    private final AtomicLong rejected = new AtomicLong();
+
+    /*
+     * `countries` are the ISO-ids there are countries for, and `header` the columns of the rows it will be given
+     */
+    RowValidator(Set<String> countries, String[] header, Path deadLetters) throws IOException {
+        this.countries = countries;
+        this.header = header;
+        List<String> columns = Arrays.asList(header);
+        this.importer = column(columns, "Importer");
+        this.exporter = column(columns, "Exporter");
+        this.taxon = column(columns, "Taxon");
+        this.year = column(columns, "Year");
+        this.appendix = column(columns, "App.");
+        this.quantities = new int[QUANTITY_COLUMNS.length];
+        for (int i = 0; i < QUANTITY_COLUMNS.length; i++) {
+            quantities[i] = column(columns, QUANTITY_COLUMNS[i]);
+        }
+        this.deadLetters = deadLetters;
+        this.out = Files.newBufferedWriter(deadLetters, StandardCharsets.UTF_8);
+        out.write("Offset,Reasons");
+        for (String column : header) {
+            out.write(',');
+            out.write(quote(column));
+        }
+        out.write('\n');
+    }
+
+    private static int column(List<String> columns, String name) {
+        int column = columns.indexOf(name);
+        if (column < 0) {
+            throw new IllegalArgumentException("No column named " + name + ", columns are " + columns);
+        }
+        return column;
+    }
+
+    /*
+     * True if the row can be loaded, else it has gone to the dead letter file
+     */
+    boolean accept(CSVRow row) {
+        List<String> reasons = null;
+        reasons = checkCountry(row, importer, "importer", reasons);
+        reasons = checkCountry(row, exporter, "exporter", reasons);
+        if (row.isEmpty(taxon)) {
+            reasons = add(reasons, "no taxon");
+        }
+        try {
+            row.getInt(year);
+        } catch (NumberFormatException e) {
+            reasons = add(reasons, "year is not a whole number: " + row.get(year));
+        }
+        for (int column : quantities) {
+            // an empty quantity is one not reported, but a row cut short has lost the column altogether
+            if (column >= row.fieldCount) {
+                reasons = add(reasons, "no " + header[column].toLowerCase() + " column");
+            } else if (!row.isEmpty(column)) {
+                double quantity;
+                try {
+                    quantity = row.getDouble(column);
+                } catch (NumberFormatException e) {
+                    quantity = Double.NaN;
+                }
+                if (Double.isNaN(quantity) || Double.isInfinite(quantity)) {
+                    reasons = add(reasons, header[column].toLowerCase() + " is not a number: " + row.get(column));
+                }
+            }
+        }
+        if (!MigrationQuery.isAppendix(row.get(appendix))) {
+            reasons = add(reasons, "unknown appendix: " + row.get(appendix));
+        }
+        if (reasons == null) {
+            return true;
+        }
+        reject(row, reasons);
+        return false;
+    }
+
+    private List<String> checkCountry(CSVRow row, int column, String role, List<String> reasons) {
+        String isoId = row.get(column);
+        if (isoId == null || !countries.contains(isoId)) {
+            return add(reasons, "unknown " + role + ": " + isoId);
+        }
+        return reasons;
+    }
+
+    // most rows are fine, so the list is only made for those that aren't
+    private static List<String> add(List<String> reasons, String reason) {
+        if (reasons == null) {
+            reasons = new ArrayList<>();
+        }
+        reasons.add(reason);
+        return reasons;
+    }
+
+    /*
+     * Writes a row that passed the checks to the dead letter file all the same, eg. as one that failed to load
+     */
+    void reject(CSVRow row, String reason) {
+        reject(row, Collections.singletonList(reason));
+    }
+
+    private void reject(CSVRow row, List<String> reasons) {
+        rejected.incrementAndGet();
+        StringBuilder line = new StringBuilder().append(row.offset()).append(',').append(quote(String.join("; ", reasons)));
+        for (int column = 0; column < header.length; column++) {
+            String value = row.get(column);
+            line.append(',').append(value == null ? "" : quote(value));
+        }
+        line.append('\n');
+        try {
+            synchronized (out) {
+                out.write(line.toString());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write rejected row to " + deadLetters, e);
+        }
+    }
+
+    private static String quote(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    long rejected() {
+        return rejected.get();
+    }
+
+    Path deadLetters() {
+        return deadLetters;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (out) {
+            out.close();
+        }
+    }
+}
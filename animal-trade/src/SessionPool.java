@@ -0,0 +1,279 @@
+package grakn.examples.animaltrade;
+
+import graql.lang.query.GraqlGet;
+import graql.lang.query.GraqlInsert;
+import graql.lang.query.GraqlQuery;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/*
+ * The sessions to one keyspace, shared by everything that loads it, with every transaction leased from the pool
+ *
+ * All of the pool's sessions come from the sink's one client, so they share its connection. Opening a transaction
+ * leases a slot on whichever session has the fewest transactions open, waiting while every slot is taken, and closing
+ * the transaction gives the slot back. A session stays open for the whole load, across every phase of it
+ *
+ * A transaction that failed may have failed because its session is broken, eg. the server dropped it. So after a
+ * failure the session is checked by opening a read transaction on it; if that fails as well the session is closed and
+ * replaced with a new one. A failure that leaves the session fine, like a conflict between writers, costs that one
+ * extra round trip
+ *
+ * How long transactions wait for a slot is recorded as the LEASE stage, under the keyspace's name
+ */
+class SessionPool implements Sink.Session {
+
+    private final Sink sink;
+    private final String keyspace;
+    private final int transactionsPerSession;
+    private final LoaderMetrics metrics;
+    // guarded by `this`
+    private final Sink.Session[] sessions;
+    private final int[] leased;
+    private int leasedTotal;
+    private boolean closed;
+
+    SessionPool(Sink sink, String keyspace, int sessionCount, int transactionsPerSession, LoaderMetrics metrics) {
+        if (sessionCount < 1 || transactionsPerSession < 1) {
+            throw new IllegalArgumentException("A session pool needs at least one session and one transaction per session,"
+                    + " got " + sessionCount + " and " + transactionsPerSession);
+        }
+        this.sink = sink;
+        this.keyspace = keyspace;
+        this.transactionsPerSession = transactionsPerSession;
+        this.metrics = metrics;
+        this.sessions = new Sink.Session[sessionCount];
+        this.leased = new int[sessionCount];
+        for (int i = 0; i < sessionCount; i++) {
+            sessions[i] = sink.session(keyspace);
+        }
+    }
+
+    int capacity() {
+        return sessions.length * transactionsPerSession;
+    }
+
+    synchronized int leased() {
+        return leasedTotal;
+    }
+
+    // the share of the pool's transactions that are leased, as a percentage
+    long utilization() {
+        return 100L * leased() / capacity();
+    }
+
+    @Override
+    public Sink.Transaction write() {
+        return lease(true);
+    }
+
+    @Override
+    public Sink.Transaction read() {
+        return lease(false);
+    }
+
+    private Sink.Transaction lease(boolean write) {
+        long start = System.nanoTime();
+        int index;
+        Sink.Session session;
+        synchronized (this) {
+            try {
+                while (leasedTotal == capacity() && !closed) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for a transaction on " + keyspace, e);
+            }
+            if (closed) {
+                throw new IllegalStateException("The session pool of " + keyspace + " is closed");
+            }
+            index = 0;
+            for (int i = 1; i < sessions.length; i++) {
+                if (leased[i] < leased[index]) {
+                    index = i;
+                }
+            }
+            leased[index]++;
+            leasedTotal++;
+            session = sessions[index];
+        }
+        metrics.record(LoaderMetrics.Stage.LEASE, keyspace, System.nanoTime() - start);
+        Sink.Transaction tx;
+        try {
+            tx = write ? session.write() : session.read();
+        } catch (RuntimeException e) {
+            release(index, session, true);
+            throw e;
+        }
+        return new LeasedTransaction(tx, index, session);
+    }
+
+    private void release(int index, Sink.Session session, boolean failed) {
+        if (failed && !healthy(session)) {
+            replace(index, session);
+        }
+        synchronized (this) {
+            leased[index]--;
+            leasedTotal--;
+            notifyAll();
+        }
+    }
+
+    private static boolean healthy(Sink.Session session) {
+        try {
+            session.read().close();
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private void replace(int index, Sink.Session broken) {
+        synchronized (this) {
+            // another transaction on the same session may have replaced it already
+            if (sessions[index] != broken || closed) {
+                return;
+            }
+        }
+        Sink.Session replacement = sink.session(keyspace);
+        boolean replaced;
+        synchronized (this) {
+            replaced = sessions[index] == broken && !closed;
+            if (replaced) {
+                sessions[index] = replacement;
+            }
+        }
+        if (replaced) {
+            System.out.printf("Replaced a broken session to %s\n", keyspace);
+        }
+        closeQuietly(replaced ? broken : replacement);
+    }
+
+    private static void closeQuietly(Sink.Session session) {
+        try {
+            session.close();
+        } catch (RuntimeException e) {
+            // it was broken anyway
+        }
+    }
+
+    /*
+     * Closes every session, failing any transaction still waiting for one
+     */
+    @Override
+    public void close() {
+        Sink.Session[] open;
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+            open = sessions.clone();
+        }
+        for (Sink.Session session : open) {
+            session.close();
+        }
+    }
+
+    // notes any failure, so the session can be checked when the slot is given back
+    private class LeasedTransaction implements Sink.Transaction {
+
+        private final Sink.Transaction tx;
+        private final int index;
+        private final Sink.Session session;
+        private boolean failed;
+        private boolean released;
+
+        LeasedTransaction(Sink.Transaction tx, int index, Sink.Session session) {
+            this.tx = tx;
+            this.index = index;
+            this.session = session;
+        }
+
+        @Override
+        public void define(GraqlQuery query) {
+            try {
+                tx.define(query);
+            } catch (RuntimeException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public int insert(GraqlInsert query) {
+            try {
+                return tx.insert(query);
+            } catch (RuntimeException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public List<String> insert(GraqlInsert query, String variable) {
+            try {
+                return tx.insert(query, variable);
+            } catch (RuntimeException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean exists(GraqlGet query) {
+            try {
+                return tx.exists(query);
+            } catch (RuntimeException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public Stream<String> values(GraqlGet query, String variable) {
+            try {
+                return tx.values(query, variable);
+            } catch (RuntimeException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public Map<String, String> conceptIds(GraqlGet query, String keyVariable, String conceptVariable) {
+            try {
+                return tx.conceptIds(query, keyVariable, conceptVariable);
+            } catch (RuntimeException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void commit() {
+            try {
+                tx.commit();
+            } catch (RuntimeException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (released) {
+                return;
+            }
+            released = true;
+            try {
+                tx.close();
+            } catch (RuntimeException e) {
+                failed = true;
+                throw e;
+            } finally {
+                release(index, session, failed);
+            }
+        }
+    }
+}
@@ -1,8 +1,16 @@
 package grakn.examples.animaltrade;
 
+import graql.lang.query.GraqlGet;
+
 import java.util.Map;
 
 public abstract class SingletonInsertMigrationQuery extends MigrationQuery {
 
-    abstract String getCheckExistQuery(Map<String, String> line);
+    abstract GraqlGet getCheckExistQuery(Map<String, String> line);
+
+    // the attribute value that makes this instance unique, eg. the name of a taxon
+    abstract String getIdentifier(Map<String, String> line);
+
+    // a get query for the identifier ($id) of every instance of this type already in the keyspace
+    abstract GraqlGet getExistingIdentifiersQuery();
 }
@@ -0,0 +1,69 @@
+package grakn.examples.animaltrade;
+
+import graql.lang.query.GraqlGet;
+import graql.lang.query.GraqlInsert;
+import graql.lang.query.GraqlQuery;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/*
+ * Where the loader writes to: Grakn itself, or a stand-in that only records what it was given
+ *
+ * Only what the loader needs from a keyspace is here, so the parsing, query building and deduplication can be run
+ * and measured without a server behind them. Anything that fails in a session or transaction throws a
+ * TransactionException
+ */
+interface Sink extends AutoCloseable {
+
+    /*
+     * A failure of the keyspace, or of getting to it, eg. a conflicting commit or a dropped connection, as opposed to
+     * one in the loader's own code: the same work may well succeed if it is tried again
+     */
+    class TransactionException extends RuntimeException {
+        TransactionException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    Session session(String keyspace);
+
+    @Override
+    void close();
+
+    interface Session extends AutoCloseable {
+
+        Transaction write();
+
+        Transaction read();
+
+        @Override
+        void close();
+    }
+
+    interface Transaction extends AutoCloseable {
+
+        // a schema query, or anything else whose answers aren't needed
+        void define(GraqlQuery query);
+
+        // the number of answers, one for every match the insert was made for
+        int insert(GraqlInsert query);
+
+        // the id of the concept the variable stands for, in every answer
+        List<String> insert(GraqlInsert query, String variable);
+
+        boolean exists(GraqlGet query);
+
+        // the value of an attribute variable in every answer
+        Stream<String> values(GraqlGet query, String variable);
+
+        // the id of the concept in `conceptVariable` by the value of the attribute in `keyVariable`, over every answer
+        Map<String, String> conceptIds(GraqlGet query, String keyVariable, String conceptVariable);
+
+        void commit();
+
+        @Override
+        void close();
+    }
+}
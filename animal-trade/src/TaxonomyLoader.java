@@ -0,0 +1,149 @@
+package grakn.examples.animaltrade;
+
+import graql.lang.query.GraqlInsert;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * First phase of the trade data load: collect the distinct taxa from the CSV into a tree, then insert them
+ * level by level (all classes, then all orders, ...) so every parent exists, with a known concept id, before its children
+ *
+ * Doing this up front leaves the fact load free of ordering constraints, so it can run in parallel
+ */
+class TaxonomyLoader {
+
+    private static final String[] TAXONOMY_COLUMNS = {"Class", "Order", "Family", "Genus", "Taxon"};
+
+    private final HierarchyInsertMigrationQuery[] levelQueries;
+    // for each level, one line per distinct taxon holding just the taxonomy columns
+    private final List<Map<String, Map<String, String>>> levels = new ArrayList<>();
+
+    private TaxonomyLoader() {
+        MigrationQuery[] queries = DataMigrationQueries.getTaxonomyHierarchyMigrationQueries();
+        levelQueries = new HierarchyInsertMigrationQuery[queries.length];
+        for (int level = 0; level < queries.length; level++) {
+            levelQueries[level] = (HierarchyInsertMigrationQuery) queries[level];
+            levels.add(new LinkedHashMap<>());
+        }
+    }
+
+    static TaxonomyLoader scan(File tradeData) throws IOException {
+        TaxonomyLoader taxonomy = new TaxonomyLoader();
+        try (CSVRowReader csv = CSVRowReader.open(tradeData.toPath(), ',', StandardCharsets.UTF_8)) {
+            while (csv.next()) {
+                taxonomy.add(csv.row());
+            }
+        }
+        return taxonomy;
+    }
+
+    static TaxonomyLoader scan(TradeTable tradeData) {
+        TaxonomyLoader taxonomy = new TaxonomyLoader();
+        CSVRow row = tradeData.newRow();
+        for (long index = 0; index < tradeData.rows(); index++) {
+            tradeData.row(index, row);
+            taxonomy.add(row);
+        }
+        return taxonomy;
+    }
+
+    private void add(Map<String, String> line) {
+        for (int level = 0; level < levelQueries.length; level++) {
+            String identifier = levelQueries[level].getIdentifier(line);
+            Map<String, Map<String, String>> taxa = levels.get(level);
+            if (!taxa.containsKey(identifier)) {
+                taxa.put(identifier, taxonomyColumns(line));
+            }
+        }
+    }
+
+    private static Map<String, String> taxonomyColumns(Map<String, String> line) {
+        Map<String, String> columns = new HashMap<>();
+        for (String column : TAXONOMY_COLUMNS) {
+            columns.put(column, line.get(column));
+        }
+        return columns;
+    }
+
+    int size() {
+        return levels.stream().mapToInt(Map::size).sum();
+    }
+
+    /*
+     * The taxa already in the keyspace, and their concept ids, are found with one query per level. The rest are inserted
+     * level by level, every batch of a level concurrently through the window, each linked to its parent by the parent's
+     * concept id, known from the level above, rather than by matching the parent's name
+     * Returns the concept id of every taxon on each level, by name
+     */
+    List<Map<String, String>> load(Sink.Session session, TransactionWindow window, int batchSize, LoaderMetrics metrics) {
+        List<Map<String, String>> conceptIds = new ArrayList<>();
+        try (Sink.Transaction tx = session.read()) {
+            for (HierarchyInsertMigrationQuery query : levelQueries) {
+                conceptIds.add(new ConcurrentHashMap<>(tx.conceptIds(query.getExistingConceptsQuery(), "id", query.getVariable())));
+            }
+        }
+
+        for (int level = 0; level < levelQueries.length; level++) {
+            Map<String, String> ids = conceptIds.get(level);
+            Map<String, String> parentIds = level > 0 ? conceptIds.get(level - 1) : Collections.emptyMap();
+            String queryClass = LoaderMetrics.queryClass(levelQueries[level]);
+            BatchLoader.RowLoader<Map<String, String>> rowLoader = levelRowLoader(level, parentIds, ids, metrics);
+            // closing the loader commits the rest of this level before the next one starts
+            try (BatchLoader<Map<String, String>> loader = new BatchLoader<>(window, queryClass, batchSize, rowLoader, metrics)) {
+                for (Map.Entry<String, Map<String, String>> taxon : levels.get(level).entrySet()) {
+                    if (!ids.containsKey(taxon.getKey())) {
+                        loader.add(taxon.getValue());
+                    }
+                }
+            }
+        }
+        return conceptIds;
+    }
+
+    /*
+     * Writes the insert of every taxon into `shards`, a level at a time, each matching its parent by name since there
+     * are no concept ids to go by
+     */
+    void write(QueryShards shards) throws IOException {
+        for (int level = 0; level < levelQueries.length; level++) {
+            List<GraqlInsert> inserts = new ArrayList<>();
+            for (Map<String, String> taxon : levels.get(level).values()) {
+                inserts.add(levelQueries[level].getQuery(taxon));
+            }
+            shards.level(LoaderMetrics.queryClass(levelQueries[level]), inserts);
+        }
+    }
+
+    private BatchLoader.RowLoader<Map<String, String>> levelRowLoader(int level, Map<String, String> parentIds,
+                                                                      Map<String, String> ids, LoaderMetrics metrics) {
+        HierarchyInsertMigrationQuery query = levelQueries[level];
+        String queryClass = LoaderMetrics.queryClass(query);
+        String parentColumn = level > 0 ? TAXONOMY_COLUMNS[level - 1] : null;
+        return (line, tx) -> {
+            long start = System.nanoTime();
+            String parentId = parentColumn != null ? parentIds.get(line.get(parentColumn)) : null;
+            // a parent without an id failed to insert, so matching it by name finds nothing either, but says so
+            GraqlInsert insert = parentColumn != null && parentId == null ? query.getQuery(line) : query.getQuery(line, parentId);
+            long built = System.nanoTime();
+            List<String> inserted = tx.insert(insert, query.getVariable());
+            metrics.record(LoaderMetrics.Stage.BUILD, queryClass, built - start);
+            metrics.record(LoaderMetrics.Stage.INSERT, queryClass, System.nanoTime() - built);
+            if (inserted.size() != 1) {
+                metrics.recordUnmatched(queryClass);
+                return;
+            }
+            // a retried batch puts its taxa again, and the next level only starts once every batch of this one is
+            // committed, so the ids it sees are the committed ones
+            ids.put(query.getIdentifier(line), inserted.get(0));
+        };
+    }
+}
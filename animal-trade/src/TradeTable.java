@@ -0,0 +1,476 @@
+package grakn.examples.animaltrade;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+
+/*
+ * The trade data preprocessed into a binary, column by column file, so repeated loads don't parse the CSV again
+ *
+ * Text columns are dictionary encoded: each distinct value is stored once, with its code translation if it has one,
+ * and every row holds an int code. The quantities are doubles, NaN where there is none, and the year a short,
+ * MISSING_YEAR where there is none; a year that isn't a whole number can't be stored, so writing fails on one.
+ * The columns are memory mapped
+ * and read in place; only the dictionaries are read onto the heap, each value decoded into a String once, and every
+ * row refers to those Strings and their bytes. Reading a row copies no bytes: it reads its codes and numbers from the
+ * mapped columns and points its fields into the dictionaries
+ *
+ * Layout, big endian: magic, version, row count and column count, then for each column its name, type, and where its
+ * dictionary and its values are; then the dictionaries, then the values of each column, back to back
+ * A dictionary is its size then, for every entry, the bytes as they were in the CSV and the translation, if any
+ *
+ * Rows come out as CSVRows with the same header as the CSV, and with `offset` the index of the row, so a checkpoint
+ * of a load from a table is in rows rather than bytes
+ */
+class TradeTable implements AutoCloseable {
+
+    private static final long MAGIC = 0x4349544553544231L; // CITESTB1
+    private static final int VERSION = 1;
+    private static final int ROWS_PER_CHUNK = 1 << 16;
+
+    private static final byte TEXT = 0;
+    private static final byte DOUBLE = 1;
+    private static final byte YEAR = 2;
+
+    // stored as numbers, everything else as text
+    private static final List<String> DOUBLE_COLUMNS = Arrays.asList("Importer reported quantity", "Exporter reported quantity");
+    private static final String YEAR_COLUMN = "Year";
+
+    // a missing field, in a record too short to have the column
+    private static final int MISSING = -1;
+    // an empty or missing year, which comes back as an empty field, so it is rejected as it would be from the CSV
+    private static final short MISSING_YEAR = Short.MIN_VALUE;
+    private static final byte[] NO_BYTES = new byte[0];
+
+    private final FileChannel file;
+    private final long rows;
+    private final String[] header;
+    private final Map<String, Integer> columns = new HashMap<>();
+    private final byte[] types;
+    private final Dictionary[] dictionaries;
+    private final IntBuffer[] codes;
+    private final DoubleBuffer[] doubles;
+    private final ShortBuffer[] years;
+
+    private static class Dictionary {
+        // the bytes of every entry back to back, as they were in the CSV
+        final byte[] bytes;
+        final int[] starts;
+        // the translation of each entry, or the entry itself when there is none
+        final String[] values;
+
+        Dictionary(byte[] bytes, int[] starts, String[] values) {
+            this.bytes = bytes;
+            this.starts = starts;
+            this.values = values;
+        }
+    }
+
+    private TradeTable(Path path) throws IOException {
+        file = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(file.position(0))));
+            if (in.readLong() != MAGIC) {
+                throw new IOException(path + " is not a preprocessed trade table");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException(path + " is version " + version + " of the trade table format, expected " + VERSION);
+            }
+            rows = in.readLong();
+            int columnCount = in.readInt();
+            header = new String[columnCount];
+            types = new byte[columnCount];
+            long[] dictionaryOffsets = new long[columnCount];
+            long[] valueOffsets = new long[columnCount];
+            for (int column = 0; column < columnCount; column++) {
+                header[column] = in.readUTF();
+                types[column] = in.readByte();
+                dictionaryOffsets[column] = in.readLong();
+                valueOffsets[column] = in.readLong();
+                columns.put(header[column], column);
+            }
+
+            dictionaries = new Dictionary[columnCount];
+            codes = new IntBuffer[columnCount];
+            doubles = new DoubleBuffer[columnCount];
+            years = new ShortBuffer[columnCount];
+            for (int column = 0; column < columnCount; column++) {
+                switch (types[column]) {
+                    case TEXT:
+                        dictionaries[column] = readDictionary(dictionaryOffsets[column]);
+                        codes[column] = map(valueOffsets[column], Integer.BYTES).asIntBuffer();
+                        break;
+                    case DOUBLE:
+                        doubles[column] = map(valueOffsets[column], Double.BYTES).asDoubleBuffer();
+                        break;
+                    case YEAR:
+                        years[column] = map(valueOffsets[column], Short.BYTES).asShortBuffer();
+                        break;
+                    default:
+                        throw new IOException("Unknown type " + types[column] + " of column " + header[column] + " in " + path);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    static TradeTable open(Path path) throws IOException {
+        return new TradeTable(path);
+    }
+
+    private ByteBuffer map(long offset, int width) throws IOException {
+        long length = rows * width;
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Column of " + rows + " rows is too large to map");
+        }
+        return file.map(FileChannel.MapMode.READ_ONLY, offset, length);
+    }
+
+    private Dictionary readDictionary(long offset) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(file.position(offset))));
+        int size = in.readInt();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int[] starts = new int[size + 1];
+        String[] values = new String[size];
+        for (int code = 0; code < size; code++) {
+            byte[] entry = new byte[in.readInt()];
+            in.readFully(entry);
+            starts[code] = bytes.size();
+            bytes.write(entry);
+            int translationLength = in.readInt();
+            if (translationLength < 0) {
+                values[code] = new String(entry, StandardCharsets.UTF_8);
+            } else {
+                byte[] translation = new byte[translationLength];
+                in.readFully(translation);
+                values[code] = new String(translation, StandardCharsets.UTF_8);
+            }
+        }
+        starts[size] = bytes.size();
+        return new Dictionary(bytes.toByteArray(), starts, values);
+    }
+
+    long rows() {
+        return rows;
+    }
+
+    String[] header() {
+        return header.clone();
+    }
+
+    int column(String name) {
+        Integer column = columns.get(name);
+        if (column == null) {
+            throw new IllegalArgumentException("No column named " + name + ", columns are " + Arrays.toString(header));
+        }
+        return column;
+    }
+
+    // a row to fill with `row`
+    CSVRow newRow() {
+        return new CSVRow(header, columns, StandardCharsets.UTF_8);
+    }
+
+    /*
+     * Fills `into`, from `newRow`, with the row at `index`
+     */
+    void row(long index, CSVRow into) {
+        into.reset();
+        int row = (int) index;
+        for (int column = 0; column < header.length; column++) {
+            if (types[column] == TEXT) {
+                int code = codes[column].get(row);
+                if (code == MISSING) {
+                    // the record was short, so the rest of it is missing too
+                    break;
+                }
+                Dictionary dictionary = dictionaries[column];
+                int start = dictionary.starts[code];
+                into.addField(dictionary.bytes, start, dictionary.starts[code + 1] - start, dictionary.values[code], code);
+            } else if (types[column] == DOUBLE) {
+                double number = doubles[column].get(row);
+                if (Double.isNaN(number)) {
+                    into.addField(NO_BYTES, 0, 0, "", -1);
+                } else {
+                    into.addNumber(number);
+                }
+            } else {
+                short year = years[column].get(row);
+                if (year == MISSING_YEAR) {
+                    into.addField(NO_BYTES, 0, 0, "", -1);
+                } else {
+                    into.addNumber(year);
+                }
+            }
+        }
+        into.number = index + 1;
+        into.offset = index;
+        into.endOffset = index + 1;
+    }
+
+    /*
+     * Hands every row within the chosen ranges to the handler, as ParallelCSVReader does for a CSV
+     * `ranges` is given the range of all the row indexes
+     */
+    void read(ParallelCSVReader.RowHandler handler, Function<CSVChunkSplitter.Chunk, List<CSVChunkSplitter.Chunk>> ranges,
+              int threads, LongConsumer readNanos) throws InterruptedException {
+        List<CSVChunkSplitter.Chunk> chunks = new ArrayList<>();
+        for (CSVChunkSplitter.Chunk range : ranges.apply(new CSVChunkSplitter.Chunk(0, rows))) {
+            for (long start = range.start; start < range.end; start += ROWS_PER_CHUNK) {
+                chunks.add(new CSVChunkSplitter.Chunk(start, Math.min(start + ROWS_PER_CHUNK, range.end)));
+            }
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(chunks.size(), 1)));
+        try {
+            List<Future<?>> readers = new ArrayList<>();
+            for (CSVChunkSplitter.Chunk chunk : chunks) {
+                readers.add(executor.submit(() -> {
+                    CSVRow row = newRow();
+                    long start = System.nanoTime();
+                    for (long index = chunk.start; index < chunk.end; index++) {
+                        row(index, row);
+                        readNanos.accept(System.nanoTime() - start);
+                        handler.handle(row);
+                        start = System.nanoTime();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> reader : readers) {
+                try {
+                    reader.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof InterruptedException) {
+                        throw (InterruptedException) e.getCause();
+                    } else if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new RuntimeException("Failed to read trade table rows", e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /*
+     * Preprocesses the CSV into a table at `table`, replacing the codes in the columns of `translations`
+     * with what they stand for. Returns the number of rows
+     */
+    static long write(Path csvFile, Path table, Map<String, Map<String, String>> translations) throws IOException {
+        return write(csvFile, table, translations, null);
+    }
+
+    /*
+     * As above, leaving out the rows `validator` rejects, which it writes to its dead letter file; null keeps every row
+     */
+    static long write(Path csvFile, Path table, Map<String, Map<String, String>> translations, RowValidator validator)
+            throws IOException {
+        Path directory = table.toAbsolutePath().getParent();
+        List<Path> temporary = new ArrayList<>();
+        try (CSVRowReader csv = CSVRowReader.open(csvFile, ',', StandardCharsets.UTF_8)) {
+            String[] header = csv.header();
+            byte[] types = new byte[header.length];
+            List<Map<String, Integer>> dictionaries = new ArrayList<>();
+            List<DataOutputStream> values = new ArrayList<>();
+            for (int column = 0; column < header.length; column++) {
+                types[column] = DOUBLE_COLUMNS.contains(header[column]) ? DOUBLE
+                        : YEAR_COLUMN.equals(header[column]) ? YEAR : TEXT;
+                // insertion order is code order
+                dictionaries.add(new LinkedHashMap<>());
+                Path columnFile = Files.createTempFile(directory, "column-" + column + "-", ".tmp");
+                temporary.add(columnFile);
+                values.add(new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(columnFile), 1 << 16)));
+            }
+
+            long rows = 0;
+            try {
+                while (csv.next()) {
+                    CSVRow row = csv.row();
+                    // checked before it is encoded, which would fail on a year or quantity that isn't a number
+                    if (validator != null && !validator.accept(row)) {
+                        continue;
+                    }
+                    for (int column = 0; column < header.length; column++) {
+                        DataOutputStream out = values.get(column);
+                        boolean missing = column >= row.fieldCount;
+                        switch (types[column]) {
+                            case TEXT:
+                                if (missing) {
+                                    out.writeInt(MISSING);
+                                } else {
+                                    Map<String, Integer> dictionary = dictionaries.get(column);
+                                    String value = row.get(column);
+                                    Integer code = dictionary.get(value);
+                                    if (code == null) {
+                                        code = dictionary.size();
+                                        dictionary.put(value, code);
+                                    }
+                                    out.writeInt(code);
+                                }
+                                break;
+                            case DOUBLE:
+                                out.writeDouble(missing || row.isEmpty(column) ? Double.NaN : row.getDouble(column));
+                                break;
+                            default:
+                                if (missing || row.isEmpty(column)) {
+                                    out.writeShort(MISSING_YEAR);
+                                    break;
+                                }
+                                int year;
+                                try {
+                                    year = row.getInt(column);
+                                } catch (NumberFormatException e) {
+                                    throw new IOException("Year \"" + row.get(column) + "\" is not a whole number in row "
+                                            + row.number() + ", which a table can't store", e);
+                                }
+                                if (year <= MISSING_YEAR || year > Short.MAX_VALUE) {
+                                    throw new IOException("Year " + year + " out of range in row " + row.number());
+                                }
+                                out.writeShort(year);
+                        }
+                    }
+                    rows++;
+                }
+            } finally {
+                for (DataOutputStream out : values) {
+                    out.close();
+                }
+            }
+
+            Path written = Files.createTempFile(directory, "table-", ".tmp");
+            temporary.add(written);
+            try (FileChannel out = FileChannel.open(written, StandardOpenOption.WRITE)) {
+                // the header is the same size whatever the offsets in it, so write it once to find out how big it is
+                long[] dictionaryOffsets = new long[header.length];
+                long[] valueOffsets = new long[header.length];
+                long position = align(header(header, types, rows, dictionaryOffsets, valueOffsets).length);
+
+                List<byte[]> dictionaryBytes = new ArrayList<>();
+                for (int column = 0; column < header.length; column++) {
+                    byte[] dictionary = types[column] == TEXT
+                            ? dictionary(dictionaries.get(column).keySet(), translations.get(header[column]))
+                            : new byte[0];
+                    dictionaryBytes.add(dictionary);
+                    dictionaryOffsets[column] = position;
+                    position = align(position + dictionary.length);
+                }
+                for (int column = 0; column < header.length; column++) {
+                    valueOffsets[column] = position;
+                    position = align(position + Files.size(temporary.get(column)));
+                }
+
+                write(out, 0, header(header, types, rows, dictionaryOffsets, valueOffsets));
+                for (int column = 0; column < header.length; column++) {
+                    write(out, dictionaryOffsets[column], dictionaryBytes.get(column));
+                }
+                for (int column = 0; column < header.length; column++) {
+                    try (FileChannel in = FileChannel.open(temporary.get(column), StandardOpenOption.READ)) {
+                        long size = in.size();
+                        for (long copied = 0; copied < size; ) {
+                            copied += in.transferTo(copied, size - copied, out.position(valueOffsets[column] + copied));
+                        }
+                    }
+                }
+                out.force(true);
+            }
+            Files.move(written, table, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return rows;
+        } finally {
+            for (Path path : temporary) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    // sections start on 8 byte boundaries, so every column can be read as its own type in place
+    private static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+
+    private static byte[] header(String[] header, byte[] types, long rows, long[] dictionaryOffsets, long[] valueOffsets)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(rows);
+        out.writeInt(header.length);
+        for (int column = 0; column < header.length; column++) {
+            out.writeUTF(header[column]);
+            out.writeByte(types[column]);
+            out.writeLong(dictionaryOffsets[column]);
+            out.writeLong(valueOffsets[column]);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] dictionary(Collection<String> entries, Map<String, String> translations) throws IOException {
+        if (translations == null) {
+            translations = Collections.emptyMap();
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(entries.size());
+        for (String entry : entries) {
+            writeBytes(out, entry.getBytes(StandardCharsets.UTF_8));
+            String translation = translations.get(entry);
+            if (translation == null) {
+                out.writeInt(-1);
+            } else {
+                writeBytes(out, translation.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void write(FileChannel out, long position, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            position += out.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package grakn.examples.animaltrade;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/*
+ * Keeps up to `size` write transactions to one keyspace in flight at once, on a session such as a SessionPool
+ *
+ * The client blocks for every round trip to the server, so the way to keep the server busy is to have many
+ * transactions waiting on it at the same time. Work is submitted as a CompletableFuture; once the window is full,
+ * submitting blocks until a transaction finishes, which holds back whoever is producing the work
+ *
+ * The window can be resized while in use, up to the size it was made able to hold; when it shrinks, transactions
+ * already in flight carry on, and nothing more is let in until it is below the new size
+ *
+ * Nothing is ordered within the window. Work that must follow other work, like a taxonomy level after its parents,
+ * waits for the futures it depends on before it is submitted
+ */
+class TransactionWindow implements AutoCloseable {
+
+    private final Sink.Session session;
+    private final ResizableSemaphore permits;
+    private final int maxSize;
+    private int size;
+    private final ExecutorService executor;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // the first failure, after which nothing more is accepted
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    private static class ResizableSemaphore extends Semaphore {
+        ResizableSemaphore(int permits) {
+            super(permits);
+        }
+
+        // may take the permits below zero, in which case releases pay off the debt before anyone acquires
+        void reduce(int reduction) {
+            reducePermits(reduction);
+        }
+    }
+
+    /*
+     * The window doesn't own the session, so closing the window leaves it open
+     */
+    TransactionWindow(Sink.Session session, int size) {
+        this(session, size, size);
+    }
+
+    TransactionWindow(Sink.Session session, int size, int maxSize) {
+        if (size < 1 || size > maxSize) {
+            throw new IllegalArgumentException("A window needs a size from 1 to " + maxSize + ", got " + size);
+        }
+        this.session = session;
+        this.size = size;
+        this.maxSize = maxSize;
+        this.permits = new ResizableSemaphore(size);
+        // one thread per transaction in flight, since each blocks on the server; they are only started when needed
+        this.executor = Executors.newFixedThreadPool(maxSize);
+    }
+
+    synchronized void resize(int newSize) {
+        if (newSize < 1 || newSize > maxSize) {
+            throw new IllegalArgumentException("A window needs a size from 1 to " + maxSize + ", got " + newSize);
+        }
+        if (newSize > size) {
+            permits.release(newSize - size);
+        } else if (newSize < size) {
+            permits.reduce(size - newSize);
+        }
+        size = newSize;
+    }
+
+    /*
+     * Runs the work on the session once there is room in the window, blocking until there is
+     */
+    CompletableFuture<Void> submit(Consumer<Sink.Session> work) throws InterruptedException {
+        checkFailure();
+        permits.acquire();
+        inFlight.incrementAndGet();
+        CompletableFuture<Void> future;
+        try {
+            future = CompletableFuture.runAsync(() -> work.accept(session), executor);
+        } catch (RuntimeException e) {
+            inFlight.decrementAndGet();
+            permits.release();
+            throw e;
+        }
+        return future.whenComplete((result, error) -> {
+            if (error != null) {
+                failure.compareAndSet(null, error instanceof CompletionException ? error.getCause() : error);
+            }
+            inFlight.decrementAndGet();
+            permits.release();
+        });
+    }
+
+    private void checkFailure() {
+        Throwable failed = failure.get();
+        if (failed != null) {
+            throw new IllegalStateException("A transaction in the window failed, not accepting more work", failed);
+        }
+    }
+
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    /*
+     * Waits for every one of the futures, rethrowing the first failure among them
+     */
+    static void awaitAll(List<CompletableFuture<Void>> futures) {
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /*
+     * Lets whatever is in flight finish
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                System.out.printf("Still waiting for %d transactions to finish\n", inFlight());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package grakn.examples.animaltrade;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/*
+ * Gives every distinct value of a column, like a country code or a taxon, a small int id and a single shared String
+ *
+ * Values are looked up by their bytes as read, so a value already in the dictionary costs no allocation at all;
+ * only a value seen for the first time is decoded. Meant for columns with few distinct values: nothing is ever removed
+ *
+ * Lookups don't lock. Adding takes a lock, copies both arrays with the new entry in them and publishes the copies by
+ * writing the volatile `state`. The arrays of a published state are never written again, so a reader that finds an
+ * entry through one can look up its id. Each value is added once, and there are few, so the copying is cheap
+ */
+class ValueDictionary {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Charset charset;
+    private final Object lock = new Object();
+    private volatile State state = new State(new Entry[INITIAL_CAPACITY], new Entry[INITIAL_CAPACITY], 0);
+
+    private static class Entry {
+        final byte[] bytes;
+        final int hash;
+        final int id;
+        final String value;
+
+        Entry(byte[] bytes, int hash, int id, String value) {
+            this.bytes = bytes;
+            this.hash = hash;
+            this.id = id;
+            this.value = value;
+        }
+    }
+
+    private static class State {
+        // open addressing, a power of two kept at most half full
+        final Entry[] table;
+        final Entry[] byId;
+        final int size;
+
+        State(Entry[] table, Entry[] byId, int size) {
+            this.table = table;
+            this.byId = byId;
+            this.size = size;
+        }
+    }
+
+    ValueDictionary(Charset charset) {
+        this.charset = charset;
+    }
+
+    /*
+     * The id of the value in `bytes` from `start` to `end`, adding it if it's new
+     */
+    int id(byte[] bytes, int start, int end) {
+        int hash = hash(bytes, start, end);
+        Entry found = find(state.table, bytes, start, end, hash);
+        if (found != null) {
+            return found.id;
+        }
+        synchronized (lock) {
+            State current = state;
+            found = find(current.table, bytes, start, end, hash);
+            if (found != null) {
+                return found.id;
+            }
+            Entry entry = new Entry(Arrays.copyOfRange(bytes, start, end), hash, current.size,
+                    new String(bytes, start, end - start, charset));
+            Entry[] table;
+            if ((current.size + 1) * 2 > current.table.length) {
+                table = new Entry[current.table.length * 2];
+                for (Entry existing : current.table) {
+                    if (existing != null) {
+                        insert(table, existing);
+                    }
+                }
+            } else {
+                table = current.table.clone();
+            }
+            int idCapacity = current.size == current.byId.length ? current.byId.length * 2 : current.byId.length;
+            Entry[] byId = Arrays.copyOf(current.byId, idCapacity);
+            byId[entry.id] = entry;
+            insert(table, entry);
+            state = new State(table, byId, current.size + 1);
+            return entry.id;
+        }
+    }
+
+    String value(int id) {
+        return state.byId[id].value;
+    }
+
+    int size() {
+        return state.size;
+    }
+
+    private static Entry find(Entry[] table, byte[] bytes, int start, int end, int hash) {
+        int mask = table.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            Entry entry = table[slot];
+            if (entry == null) {
+                return null;
+            }
+            if (entry.hash == hash && equals(entry.bytes, bytes, start, end)) {
+                return entry;
+            }
+        }
+    }
+
+    private static void insert(Entry[] table, Entry entry) {
+        int mask = table.length - 1;
+        int slot = entry.hash & mask;
+        while (table[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = entry;
+    }
+
+    private static boolean equals(byte[] entry, byte[] bytes, int start, int end) {
+        if (entry.length != end - start) {
+            return false;
+        }
+        for (int i = 0; i < entry.length; i++) {
+            if (entry[i] != bytes[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(byte[] bytes, int start, int end) {
+        int hash = 1;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        // spread the bits, since the slot is taken from the low ones
+        return hash ^ (hash >>> 16);
+    }
+}